@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.android.stickyrecycler;
+
+import android.support.annotation.NonNull;
+
+public interface IStickyIdCreator<ITEM, IDENTIFIER> {
+
+    /**
+     * Returns the stable id of a normal row, below 2^62.
+     */
+    long getItemId(@NonNull ITEM item);
+
+    /**
+     * Returns the stable id of the sticky row for the identifier, unique per identifier and from 0 to below 2^40.
+     */
+    long getStickyId(@NonNull IDENTIFIER identifier);
+
+}
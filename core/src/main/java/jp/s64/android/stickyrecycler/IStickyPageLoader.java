@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.android.stickyrecycler;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+public interface IStickyPageLoader<ITEM> {
+
+    void loadPage(int startIndex, int count, @NonNull Callback<ITEM> callback);
+
+    interface Callback<ITEM> {
+
+        /**
+         * Delivers the requested count of items, a page with another count is dropped and requested again on the next bind of its rows.
+         */
+        void onPageLoaded(@NonNull List<ITEM> items);
+
+        /**
+         * Releases the page, so it is requested again on the next bind of its rows.
+         */
+        void onPageFailed();
+
+    }
+
+}
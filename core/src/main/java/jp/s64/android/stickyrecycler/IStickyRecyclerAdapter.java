@@ -16,16 +16,53 @@
 
 package jp.s64.android.stickyrecycler;
 
+import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
 
+import com.google.common.base.Predicate;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
 public interface IStickyRecyclerAdapter<ITEM, IDENTIFIER, VH extends RecyclerView.ViewHolder> {
 
     void add(ITEM... items);
 
+    void addAll(Collection<? extends ITEM> items);
+
+    void addAll(Iterator<? extends ITEM> items);
+
+    /**
+     * Inserts items in front of the row at the given adapter position.
+     */
+    void addAll(int position, Collection<? extends ITEM> items);
+
     void remove(ITEM item);
 
+    /**
+     * Replaces an item, moving it to another section when its identifier changes.
+     */
+    void update(ITEM oldItem, ITEM newItem);
+
+    /**
+     * Moves the item at fromPosition in front of the row at toPosition.
+     */
+    void move(int fromPosition, int toPosition);
+
+    void removeSection(IDENTIFIER identifier);
+
+    /**
+     * Removes the items shown between the given adapter positions, headers go away with the last item of their section.
+     */
+    void removeRange(int fromPosition, int toPosition);
+
+    void removeAll(Predicate<? super ITEM> predicate);
+
     void clear();
 
+    void submitList(@Nullable List<ITEM> items);
+
     ITEM getItemByPosition(int position);
 
     IDENTIFIER getIdentifierByPosition(int position);
@@ -36,6 +73,16 @@ public interface IStickyRecyclerAdapter<ITEM, IDENTIFIER, VH extends RecyclerVie
 
     int getStickyViewType();
 
+    boolean isStickyPosition(int position);
+
     int findStickyPositionByIdentifier(IDENTIFIER identifier);
 
+    int getSectionCount();
+
+    int getSectionForPosition(int position);
+
+    int getPositionForSection(int section);
+
+    int getItemCountInSection(int section);
+
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.android.stickyrecycler;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class LongStickyRecyclerAdapterHelper<ITEM, VH extends RecyclerView.ViewHolder> extends StickyRecyclerAdapterHelper<ITEM, Long, VH> {
+
+    private final ILongStickyCreator<ITEM, VH> mLongStickyCreator;
+
+    public LongStickyRecyclerAdapterHelper(ILongStickyCreator<ITEM, VH> stickyCreator) {
+        this(stickyCreator, null, null);
+    }
+
+    public LongStickyRecyclerAdapterHelper(ILongStickyCreator<ITEM, VH> stickyCreator, @Nullable Integer stickyViewType, @Nullable Integer defaultItemType) {
+        super(new BoxedStickyCreator<>(stickyCreator), stickyViewType, defaultItemType);
+        mLongStickyCreator = stickyCreator;
+    }
+
+    public ILongStickyCreator<ITEM, VH> getLongStickyCreator() {
+        return mLongStickyCreator;
+    }
+
+    public int findStickyPositionByIdentifier(long identifier) {
+        return findStickyPositionByIdentifier(Long.valueOf(identifier));
+    }
+
+    @Nullable
+    @Override
+    protected IStickyIdCreator<ITEM, Long> getIdCreator() {
+        return mLongStickyCreator instanceof IStickyIdCreator ? (IStickyIdCreator<ITEM, Long>) mLongStickyCreator : null;
+    }
+
+    @Override
+    protected boolean isSameIdentifier(Long a, Long b) {
+        return a.longValue() == b.longValue();
+    }
+
+    @Override
+    protected boolean isSameSection(int a, int b) {
+        long[] keys = getLongIndex().mSectionKeys;
+        return keys[a] == keys[b];
+    }
+
+    @Override
+    protected Long resolveIdentifier(ITEM item, int candidateSection) {
+        long key = mLongStickyCreator.getIdentifier(item);
+        if (candidateSection >= 0 && getLongIndex().mSectionKeys[candidateSection] == key) {
+            return getSectionIdentifier(candidateSection);
+        }
+        return internIdentifier(key);
+    }
+
+    @Override
+    protected Map<Long, List<ITEM>> groupItems(Iterator<? extends ITEM> items) {
+        // groups are found by their primitive key, so an identifier is boxed once per group instead of once per item
+        long[] keys = new long[16];
+        int[] table = new int[32];
+        List<List<ITEM>> groups = new ArrayList<>();
+        int last = -1;
+        while (items.hasNext()) {
+            ITEM item = items.next();
+            long key = mLongStickyCreator.getIdentifier(item);
+            int group = last >= 0 && keys[last] == key ? last : -1;
+            if (group < 0) {
+                int mask = table.length - 1;
+                int i = hashKey(key) & mask;
+                for (; table[i] != 0; i = (i + 1) & mask) {
+                    if (keys[table[i] - 1] == key) {
+                        group = table[i] - 1;
+                        break;
+                    }
+                }
+                if (group < 0) {
+                    group = groups.size();
+                    if (group == keys.length) {
+                        keys = Arrays.copyOf(keys, group * 2);
+                    }
+                    keys[group] = key;
+                    groups.add(new ArrayList<ITEM>());
+                    table[i] = group + 1;
+                    if (groups.size() * 2 > table.length) {
+                        table = rehashGroups(keys, groups.size(), table.length * 2);
+                    }
+                }
+            }
+            groups.get(group).add(item);
+            last = group;
+        }
+
+        Map<Long, List<ITEM>> ret = new LinkedHashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            ret.put(internIdentifier(keys[i]), groups.get(i));
+        }
+        return ret;
+    }
+
+    private static int[] rehashGroups(long[] keys, int count, int capacity) {
+        int[] table = new int[capacity];
+        int mask = capacity - 1;
+        for (int group = 0; group < count; group++) {
+            int i = hashKey(keys[group]) & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = group + 1;
+        }
+        return table;
+    }
+
+    private static int hashKey(long key) {
+        int h = (int) (key ^ (key >>> 32));
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    protected StickyRecyclerAdapterHelper<ITEM, Long, VH> newHelper() {
+        return new LongStickyRecyclerAdapterHelper<>(mLongStickyCreator, getStickyViewType(), getDefaultViewType());
+    }
+
+    @Override
+    protected Index<ITEM, Long> createIndex() {
+        return new LongIndex<>();
+    }
+
+    private LongIndex<ITEM> getLongIndex() {
+        return (LongIndex<ITEM>) getIndex();
+    }
+
+    @Override
+    protected void onSectionAdded(int section) {
+        LongIndex<ITEM> index = getLongIndex();
+        if (index.mSectionKeyCount == index.mSectionKeys.length) {
+            index.mSectionKeys = Arrays.copyOf(index.mSectionKeys, index.mSectionKeyCount * 2);
+        }
+        System.arraycopy(index.mSectionKeys, section, index.mSectionKeys, section + 1, index.mSectionKeyCount - section);
+        index.mSectionKeys[section] = getSectionIdentifier(section);
+        index.mSectionKeyCount++;
+    }
+
+    @Override
+    protected void onSectionsRemoved(int fromSection, int count) {
+        LongIndex<ITEM> index = getLongIndex();
+        System.arraycopy(index.mSectionKeys, fromSection + count, index.mSectionKeys, fromSection, index.mSectionKeyCount - fromSection - count);
+        index.mSectionKeyCount -= count;
+    }
+
+    private static class LongIndex<ITEM> extends Index<ITEM, Long> {
+
+        // primitive copies of the section identifiers, so lookups compare keys without unboxing
+        private long[] mSectionKeys;
+
+        private int mSectionKeyCount;
+
+        public LongIndex() {
+            mSectionKeys = new long[16];
+            mSectionKeyCount = 0;
+        }
+
+        public LongIndex(LongIndex<ITEM> source) {
+            super(source);
+            mSectionKeys = Arrays.copyOf(source.mSectionKeys, Math.max(source.mSectionKeyCount, 16));
+            mSectionKeyCount = source.mSectionKeyCount;
+        }
+
+        @Override
+        protected Index<ITEM, Long> copy() {
+            return new LongIndex<>(this);
+        }
+
+        @Override
+        protected void trimToSize() {
+            super.trimToSize();
+            mSectionKeys = Arrays.copyOf(mSectionKeys, Math.max(mSectionKeyCount, 16));
+        }
+
+    }
+
+    private static class BoxedStickyCreator<ITEM, VH extends RecyclerView.ViewHolder> implements IStickyCreator<ITEM, Long, VH> {
+
+        private final ILongStickyCreator<ITEM, VH> mCreator;
+
+        public BoxedStickyCreator(ILongStickyCreator<ITEM, VH> creator) {
+            mCreator = creator;
+        }
+
+        @NonNull
+        @Override
+        public VH createStickyViewHolder(ViewGroup parent) {
+            return mCreator.createStickyViewHolder(parent);
+        }
+
+        @NonNull
+        @Override
+        public Long getIdentifier(@NonNull ITEM item) {
+            return mCreator.getIdentifier(item);
+        }
+
+        @Override
+        public void bindStickyViewHolder(@NonNull VH viewHolder, @NonNull Long identifier) {
+            mCreator.bindStickyViewHolder(viewHolder, identifier);
+        }
+
+    }
+
+}
@@ -54,23 +54,10 @@ public class StaticLinearLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends R
         if (scrolled == 0 || (adapterPosition = self.findFirstVisibleItemPosition()) == RecyclerView.NO_POSITION) {
             return;
         }
-        Integer currentSticky = null;
-
-        for (int itr = adapterPosition; itr >= 0; itr--) {
-            if (mCurrentAdapter.getItemViewType(itr) == mCurrentAdapter.getStickyViewType()) {
-                if (currentSticky == null) {
-                    currentSticky = itr;
-                    break;
-                }
-            }
-        }
-
-        if (currentSticky != null) {
-            notifyStickyChanged(
-                    mCurrentAdapter.getIdentifierByPosition(currentSticky),
-                    scrolled > 0 ? IStickyRecyclerAdapterListener.ScrollDirection.FORWARD : IStickyRecyclerAdapterListener.ScrollDirection.BACKWARD
-            );
-        }
+        notifyStickyChanged(
+                mCurrentAdapter.getIdentifierByPosition(adapterPosition),
+                scrolled > 0 ? IStickyRecyclerAdapterListener.ScrollDirection.FORWARD : IStickyRecyclerAdapterListener.ScrollDirection.BACKWARD
+        );
     }
 
     public void onAdapterChanged(RecyclerView.Adapter oldAdapter, RecyclerView.Adapter newAdapter) {
@@ -21,6 +21,13 @@ import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
 import android.view.ViewGroup;
 
+import com.google.common.base.Predicate;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
 public abstract class StickyRecyclerAdapter<ITEM, IDENTIFIER, VH extends RecyclerView.ViewHolder> extends RecyclerView.Adapter<VH> implements IStickyRecyclerAdapter<ITEM, IDENTIFIER, VH> {
 
     private final StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, VH> mHelper;
@@ -30,7 +37,13 @@ public abstract class StickyRecyclerAdapter<ITEM, IDENTIFIER, VH extends Recycle
     }
 
     public StickyRecyclerAdapter(IStickyCreator<ITEM, IDENTIFIER, VH> stickyCreator, @Nullable Integer stickyViewType, @Nullable Integer defaultItemType) {
-        mHelper = new StickyRecyclerAdapterHelper<>(stickyCreator, stickyViewType, defaultItemType);
+        this(new StickyRecyclerAdapterHelper<>(stickyCreator, stickyViewType, defaultItemType));
+    }
+
+    protected StickyRecyclerAdapter(StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, VH> helper) {
+        mHelper = helper;
+        mHelper.setListUpdateCallback(new StickyAdapterListUpdateCallback(this));
+        setHasStableIds(mHelper.hasStableIds());
     }
 
     @Override
@@ -38,6 +51,11 @@ public abstract class StickyRecyclerAdapter<ITEM, IDENTIFIER, VH extends Recycle
         return mHelper.getItemViewType(position);
     }
 
+    @Override
+    public long getItemId(int position) {
+        return mHelper.getItemId(position);
+    }
+
     @CallSuper
     @Nullable
     @Override
@@ -64,16 +82,105 @@ public abstract class StickyRecyclerAdapter<ITEM, IDENTIFIER, VH extends Recycle
         mHelper.add(items);
     }
 
+    @Override
+    public void addAll(Collection<? extends ITEM> items) {
+        mHelper.addAll(items);
+    }
+
+    @Override
+    public void addAll(Iterator<? extends ITEM> items) {
+        mHelper.addAll(items);
+    }
+
+    @Override
+    public void addAll(int position, Collection<? extends ITEM> items) {
+        mHelper.addAll(position, items);
+    }
+
     @Override
     public void remove(ITEM item) {
         mHelper.remove(item);
     }
 
+    @Override
+    public void update(ITEM oldItem, ITEM newItem) {
+        mHelper.update(oldItem, newItem);
+    }
+
+    @Override
+    public void move(int fromPosition, int toPosition) {
+        mHelper.move(fromPosition, toPosition);
+    }
+
+    @Override
+    public void removeSection(IDENTIFIER identifier) {
+        mHelper.removeSection(identifier);
+    }
+
+    @Override
+    public void removeRange(int fromPosition, int toPosition) {
+        mHelper.removeRange(fromPosition, toPosition);
+    }
+
+    @Override
+    public void removeAll(Predicate<? super ITEM> predicate) {
+        mHelper.removeAll(predicate);
+    }
+
     @Override
     public void clear() {
         mHelper.clear();
     }
 
+    @Override
+    public void submitList(@Nullable List<ITEM> items) {
+        mHelper.submitList(items);
+    }
+
+    public void setComparator(@Nullable Comparator<? super ITEM> comparator) {
+        mHelper.setComparator(comparator);
+    }
+
+    public void setGroupingEnabled(boolean enabled) {
+        mHelper.setGroupingEnabled(enabled);
+    }
+
+    public void setFrameBatchingEnabled(boolean enabled) {
+        mHelper.setFrameBatchingEnabled(enabled);
+    }
+
+    public void flushPendingItems() {
+        mHelper.flushPendingItems();
+    }
+
+    public void setFilter(@Nullable Predicate<? super ITEM> filter) {
+        mHelper.setFilter(filter);
+    }
+
+    public StickyRecyclerAdapterHelper.Snapshot<ITEM, IDENTIFIER> getSnapshot() {
+        return mHelper.getSnapshot();
+    }
+
+    public StickyRecyclerAdapterHelper.Snapshot<ITEM, IDENTIFIER> createSnapshot(List<ITEM> items) {
+        return mHelper.createSnapshot(items);
+    }
+
+    public void applySnapshot(StickyRecyclerAdapterHelper.Snapshot<ITEM, IDENTIFIER> snapshot) {
+        mHelper.applySnapshot(snapshot);
+    }
+
+    public void setPagedSource(List<IDENTIFIER> sectionIdentifiers, int[] sectionItemCounts, int pageSize, IStickyPageLoader<ITEM> loader) {
+        mHelper.setPagedSource(sectionIdentifiers, sectionItemCounts, pageSize, loader);
+    }
+
+    public void trimToSize() {
+        mHelper.trimToSize();
+    }
+
+    public boolean isPlaceholderPosition(int position) {
+        return mHelper.isPlaceholderPosition(position);
+    }
+
     @Override
     public ITEM getItemByPosition(int position) {
         return mHelper.getItemByPosition(position);
@@ -99,9 +206,34 @@ public abstract class StickyRecyclerAdapter<ITEM, IDENTIFIER, VH extends Recycle
         return mHelper.getStickyViewType();
     }
 
+    @Override
+    public boolean isStickyPosition(int position) {
+        return mHelper.isStickyPosition(position);
+    }
+
     @Override
     public int findStickyPositionByIdentifier(IDENTIFIER identifier) {
         return mHelper.findStickyPositionByIdentifier(identifier);
     }
 
+    @Override
+    public int getSectionCount() {
+        return mHelper.getSectionCount();
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        return mHelper.getSectionForPosition(position);
+    }
+
+    @Override
+    public int getPositionForSection(int section) {
+        return mHelper.getPositionForSection(section);
+    }
+
+    @Override
+    public int getItemCountInSection(int section) {
+        return mHelper.getItemCountInSection(section);
+    }
+
 }
@@ -16,29 +16,133 @@
 
 package jp.s64.android.stickyrecycler;
 
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.Nullable;
+import android.support.v7.util.BatchingListUpdateCallback;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
 import android.view.ViewGroup;
 
+import com.google.common.base.Predicate;
+
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 public class StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, VH extends RecyclerView.ViewHolder> implements IStickyRecyclerAdapter<ITEM, IDENTIFIER, VH> {
 
     public static final int DEFAULT_STICKY_ITEM_TYPE = 1220887943;
     public static final int DEFAULT_ITEM_TYPE = 0;
 
+    /**
+     * Set on the ids of sticky rows, so they do not collide with ids of normal rows below 2^62.
+     */
+    public static final long STICKY_ITEM_ID_FLAG = 1L << 62;
+
+    /**
+     * Number of bits available to {@link IStickyIdCreator#getStickyId}, the bits above count the repeated sections of an identifier.
+     */
+    public static final int STICKY_ID_BITS = 40;
+
+    /**
+     * Set together with {@link #STICKY_ITEM_ID_FLAG} on the ids of placeholder rows, whose lower bits hold the index of the row.
+     */
+    public static final long PLACEHOLDER_ITEM_ID_FLAG = 1L << 61;
+
+    private static final long STICKY_OCCURRENCE_MASK = (1L << 21) - 1;
+
+    private static final int INITIAL_SECTION_CAPACITY = 16;
+
+    private static Executor sDefaultDiffExecutor = null;
+    private static Handler sMainHandler = null;
+
     private final int mStickyViewType;
     private final int mDefaultItemType;
 
     private final IStickyCreator<ITEM, IDENTIFIER, VH> mStickyCreator;
 
-    private final List<ITEM> mRawItems = new ArrayList<>();
+    // read by the main thread without the lock, replaced or mutated only while holding it
+    private Index<ITEM, IDENTIFIER> mIndex;
+
+    // set once a snapshot holds the index, the next mutation then works on a copy
+    private boolean mIndexShared = false;
+
+    @Nullable
+    private ListUpdateCallback mListUpdateCallback = null;
+
+    @Nullable
+    private Executor mDiffExecutor = null;
+
+    @Nullable
+    private Executor mMainThreadExecutor = null;
+
+    private volatile int mMaxScheduledGeneration = 0;
+
+    @Nullable
+    private Comparator<? super ITEM> mComparator = null;
+
+    private boolean mGroupingEnabled = false;
+
+    @Nullable
+    private IStickyPageLoader<ITEM> mPageLoader = null;
+
+    private int mPageSize = 0;
+
+    @Nullable
+    private boolean[] mRequestedPages = null;
+
+    @Nullable
+    private Predicate<? super ITEM> mFilter = null;
+
+    @Nullable
+    private List<ITEM> mUnfilteredItems = null;
+
+    private int mRevision = 0;
+
+    @Nullable
+    private Snapshot<ITEM, IDENTIFIER> mSnapshot = null;
+
+    private volatile boolean mFrameBatchingEnabled = false;
+
+    private final List<Runnable> mPendingMutations = new ArrayList<>();
 
-    private final Set<IDENTIFIER> mStickyCaches = new HashSet<>();
+    // the items of the last queued add, which later adds join until another kind of mutation is queued
+    @Nullable
+    private List<ITEM> mPendingItems = null;
+
+    @Nullable
+    private Object mFrameCallback = null;
+
+    private final Runnable mFlushPendingMutations = new Runnable() {
+
+        @Override
+        public void run() {
+            flushPendingItems();
+        }
+
+    };
+
+    private final Runnable mPostFrameFlush = new Runnable() {
+
+        @Override
+        public void run() {
+            postFrameFlush();
+        }
+
+    };
 
     public StickyRecyclerAdapterHelper(IStickyCreator<ITEM, IDENTIFIER, VH> stickyCreator) {
         this(stickyCreator, null, null);
@@ -49,6 +153,22 @@ public class StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, VH extends RecyclerVi
         mStickyCreator = stickyCreator;
         mStickyViewType = stickyViewType != null ? stickyViewType : DEFAULT_STICKY_ITEM_TYPE;
         mDefaultItemType = defaultItemType != null ? defaultItemType : DEFAULT_ITEM_TYPE;
+        mIndex = createIndex();
+    }
+
+    public void setListUpdateCallback(@Nullable ListUpdateCallback callback) {
+        mListUpdateCallback = callback;
+    }
+
+    public void setDiffExecutor(@Nullable Executor executor) {
+        mDiffExecutor = executor;
+    }
+
+    /**
+     * Sets the executor which applies the calculated lists, the main thread by default.
+     */
+    public void setMainThreadExecutor(@Nullable Executor executor) {
+        mMainThreadExecutor = executor;
     }
 
     @Nullable
@@ -60,121 +180,1755 @@ public class StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, VH extends RecyclerVi
     }
 
     public boolean onBindViewHolder(VH holder, int position) {
-        if (getItemViewType(position) == mStickyViewType) {
-            mStickyCreator.bindStickyViewHolder(holder, get(position).identifier);
+        int section = findSectionByPosition(position);
+        if (mIndex.mSectionPositions[section] == position) {
+            mStickyCreator.bindStickyViewHolder(holder, mIndex.mSectionIdentifiers.get(section));
             return true;
         }
+        if (mPageLoader != null) {
+            loadPagesAround(position - section - 1);
+        }
         return false;
     }
 
     public int getItemCount() {
-        return mRawItems.size() + mStickyCaches.size();
+        return mIndex.mRawItems.size() + mIndex.mSectionCount;
     }
 
     public int getItemViewType(int position) {
-        return get(position).isIdentifier() ? mStickyViewType : mDefaultItemType;
+        return isStickyPosition(position) ? mStickyViewType : mDefaultItemType;
     }
 
-    protected Item get(int position) {
-        IDENTIFIER lastId = null;
+    public long getItemId(int position) {
+        IStickyIdCreator<ITEM, IDENTIFIER> idCreator = getIdCreator();
+        if (idCreator == null) {
+            return RecyclerView.NO_ID;
+        }
+        int section = findSectionByPosition(position);
+        if (mIndex.mSectionPositions[section] == position) {
+            return getStickyItemId(idCreator, section);
+        }
+        int rawIndex = position - section - 1;
+        ITEM item = mIndex.mRawItems.get(rawIndex);
+        if (item == null) {
+            return STICKY_ITEM_ID_FLAG | PLACEHOLDER_ITEM_ID_FLAG | rawIndex;
+        }
+        return idCreator.getItemId(item);
+    }
+
+    private long getStickyItemId(IStickyIdCreator<ITEM, IDENTIFIER> idCreator, int section) {
+        IDENTIFIER identifier = mIndex.mSectionIdentifiers.get(section);
+        long stickyId = idCreator.getStickyId(identifier);
+        if (stickyId < 0 || stickyId >= 1L << STICKY_ID_BITS) {
+            throw new IllegalArgumentException("Sticky id " + stickyId + " of " + identifier + " does not fit in " + STICKY_ID_BITS + " bits");
+        }
 
-        int skipped = 0;
-        int i = -1;
-        do {
-            i++;
+        // the plain mode opens a new section whenever the identifier changes, so repeated sections are told apart by their occurrence
+        if (mIndex.mSectionOccurrences == null) {
+            rebuildSectionOccurrences();
+        }
+        long occurrence = mIndex.mSectionOccurrences[section];
+        return STICKY_ITEM_ID_FLAG | ((occurrence & STICKY_OCCURRENCE_MASK) << STICKY_ID_BITS) | stickyId;
+    }
 
-            ITEM item = mRawItems.get(i - skipped);
-            IDENTIFIER currentId = mStickyCreator.getIdentifier(item);
+    private void rebuildSectionOccurrences() {
+        int[] occurrences = new int[mIndex.mSectionCount];
+        // counted at the first section of each identifier
+        int[] counts = new int[mIndex.mSectionCount];
+        for (int i = 0; i < mIndex.mSectionCount; i++) {
+            occurrences[i] = counts[findSectionByIdentifier(mIndex.mSectionIdentifiers.get(i))]++;
+        }
+        mIndex.mSectionOccurrences = occurrences;
+    }
 
-            if (lastId == null || !lastId.equals(currentId)) {
-                lastId = currentId;
-                skipped++;
-                if (i == position) {
-                    return new Item(null, currentId);
-                }
-            }
+    /**
+     * Returns whether the rows have stable ids, which requires the creator to implement {@link IStickyIdCreator}.
+     */
+    public boolean hasStableIds() {
+        return getIdCreator() != null;
+    }
 
-            if (i == position) {
-                return new Item(item, null);
+    @Nullable
+    protected IStickyIdCreator<ITEM, IDENTIFIER> getIdCreator() {
+        return mStickyCreator instanceof IStickyIdCreator ? (IStickyIdCreator<ITEM, IDENTIFIER>) mStickyCreator : null;
+    }
+
+    public boolean isStickyPosition(int position) {
+        return mIndex.mSectionPositions[findSectionByPosition(position)] == position;
+    }
+
+    protected Item get(int position) {
+        return isStickyPosition(position) ? new Item(null, getIdentifierByPosition(position)) : new Item(getItemByPosition(position), null);
+    }
+
+    protected int findSectionByPosition(int position) {
+        if (position < 0 || position >= getItemCount()) {
+            throw new IndexOutOfBoundsException("Invalid position " + position + ", size is " + getItemCount());
+        }
+        int low = 0;
+        int high = mIndex.mSectionCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mIndex.mSectionPositions[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
             }
-        } while (true);
+        }
+        return low;
     }
 
     @Override
     public void add(ITEM... items) {
-        for (ITEM i : items) {
-            mRawItems.add(i);
+        addAll(Arrays.asList(items));
+    }
+
+    @Override
+    public void addAll(Collection<? extends ITEM> items) {
+        if (mFrameBatchingEnabled) {
+            enqueueItems(items);
+            return;
         }
-        onItemsChanged();
+        flushPendingItems();
+        applyAdd(items.iterator(), items.size());
     }
 
     @Override
-    public void remove(ITEM item) {
-        mRawItems.remove(item);
-        onItemsChanged();
+    public void addAll(Iterator<? extends ITEM> items) {
+        if (mFrameBatchingEnabled) {
+            List<ITEM> batch = new ArrayList<>();
+            while (items.hasNext()) {
+                batch.add(items.next());
+            }
+            enqueueItems(batch);
+            return;
+        }
+        flushPendingItems();
+        applyAdd(items, 0);
+    }
+
+    private synchronized void applyAdd(Iterator<? extends ITEM> items, int count) {
+        if (mUnfilteredItems != null) {
+            List<ITEM> unfiltered = copyUnfilteredItems();
+            while (items.hasNext()) {
+                unfiltered.add(items.next());
+            }
+            submitItems(unfiltered, mFilter);
+            return;
+        }
+        prepareMutation();
+        mMaxScheduledGeneration++;
+        mIndex.mRawItems.ensureCapacity(mIndex.mRawItems.size() + count);
+        addItems(items);
     }
 
     @Override
-    public void clear() {
-        mRawItems.clear();
+    public synchronized void addAll(int position, Collection<? extends ITEM> items) {
+        checkNotPaged();
+        checkNotBatching();
+        flushPendingItems();
+        if (mComparator != null) {
+            throw new IllegalStateException("Positions are decided by the comparator in sorted mode");
+        } else if (mGroupingEnabled) {
+            throw new IllegalStateException("Positions are decided by the identifier in grouping mode");
+        } else if (position < 0 || position > getItemCount()) {
+            throw new IndexOutOfBoundsException("Invalid position " + position + ", size is " + getItemCount());
+        } else if (mUnfilteredItems != null) {
+            List<ITEM> unfiltered = copyUnfilteredItems();
+            unfiltered.addAll(findUnfilteredIndexByPosition(unfiltered, position), items);
+            submitItems(unfiltered, mFilter);
+            return;
+        }
+        prepareMutation();
+        mMaxScheduledGeneration++;
+        if (position == getItemCount()) {
+            mIndex.mRawItems.ensureCapacity(mIndex.mRawItems.size() + items.size());
+            appendItems(items.iterator());
+        } else {
+            insertItems(findRawIndexByPosition(position), items);
+        }
+    }
+
+    /**
+     * Finds the unfiltered index of the item shown at the position, so a filtered mutation keeps its place among the shown neighbours.
+     */
+    private int findUnfilteredIndexByPosition(List<ITEM> unfiltered, int position) {
+        int rawIndex = findRawIndexByPosition(position);
+        int index = rawIndex < mIndex.mRawItems.size() ? unfiltered.indexOf(mIndex.mRawItems.get(rawIndex)) : -1;
+        return index >= 0 ? index : unfiltered.size();
+    }
+
+    private List<ITEM> copyUnfilteredItems() {
+        // the submitted list may still be read by the diff executor
+        return new ArrayList<>(mUnfilteredItems);
+    }
+
+    private int findRawIndexByPosition(int position) {
+        if (position == getItemCount()) {
+            return mIndex.mRawItems.size();
+        }
+        int section = findSectionByPosition(position);
+        return mIndex.mSectionPositions[section] == position ? position - section : position - section - 1;
+    }
+
+    public synchronized void setComparator(@Nullable Comparator<? super ITEM> comparator) {
+        checkNotPaged();
+        mComparator = comparator;
+        if (comparator == null || isSorted(mIndex.mRawItems, comparator)) {
+            return;
+        }
+        mMaxScheduledGeneration++;
+        prepareIndex();
+        if (mGroupingEnabled) {
+            // sections keep their order, only the items inside of each section are sorted
+            for (int i = 0; i < mIndex.mSectionCount; i++) {
+                List<ITEM> items = mIndex.mRawItems.subList(getSectionRawStart(i), getSectionRawEnd(i));
+                if (!isSorted(items, comparator)) {
+                    Collections.sort(items, comparator);
+                    notifyRowsChanged(mIndex.mSectionPositions[i] + 1, items.size());
+                }
+            }
+            return;
+        }
+        int removedCount = getItemCount();
+        Collections.sort(mIndex.mRawItems, comparator);
         onItemsChanged();
+        notifyRowsRemoved(0, removedCount);
+        notifyRowsInserted(0, getItemCount());
     }
 
-    @Override
-    public ITEM getItemByPosition(int position) {
-        return get(position).item;
+    @Nullable
+    public Comparator<? super ITEM> getComparator() {
+        return mComparator;
     }
 
-    @Override
-    public IDENTIFIER getIdentifierByPosition(int position) {
-        Item obj = get(position);
-        return obj.isItem() ? mStickyCreator.getIdentifier(obj.item) : obj.identifier;
+    /**
+     * Queues mutations, which may then come from any thread, and applies them in order on the next frame.
+     * Positional mutations are rejected meanwhile, since the queued ones would shift their positions.
+     */
+    public void setFrameBatchingEnabled(boolean enabled) {
+        mFrameBatchingEnabled = enabled;
+        if (!enabled) {
+            flushPendingItems();
+        }
     }
 
-    @Override
-    public IStickyCreator<ITEM, IDENTIFIER, VH> getStickyCreator() {
-        return mStickyCreator;
+    public boolean isFrameBatchingEnabled() {
+        return mFrameBatchingEnabled;
     }
 
-    @Override
-    public int getDefaultViewType() {
-        return mDefaultItemType;
+    /**
+     * Applies the queued mutations in their order.
+     */
+    public synchronized void flushPendingItems() {
+        List<Runnable> mutations;
+        synchronized (mPendingMutations) {
+            if (mPendingMutations.isEmpty()) {
+                return;
+            }
+            mutations = new ArrayList<>(mPendingMutations);
+            mPendingMutations.clear();
+            mPendingItems = null;
+        }
+
+        // neighbouring ranges of the batch are joined before they reach the adapter
+        ListUpdateCallback callback = mListUpdateCallback;
+        BatchingListUpdateCallback batching = callback != null ? new BatchingListUpdateCallback(callback) : null;
+        mListUpdateCallback = batching;
+        try {
+            for (Runnable mutation : mutations) {
+                mutation.run();
+            }
+        } finally {
+            mListUpdateCallback = callback;
+        }
+        if (batching != null) {
+            batching.dispatchLastEvent();
+        }
     }
 
-    @Override
-    public int getStickyViewType() {
-        return mStickyViewType;
+    private void enqueueItems(Collection<? extends ITEM> items) {
+        checkNotPaged();
+        if (items.isEmpty()) {
+            return;
+        }
+        boolean schedules;
+        synchronized (mPendingMutations) {
+            schedules = mPendingMutations.isEmpty();
+            if (mPendingItems == null) {
+                final List<ITEM> batch = new ArrayList<>();
+                mPendingMutations.add(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        applyAdd(batch.iterator(), batch.size());
+                    }
+
+                });
+                mPendingItems = batch;
+            }
+            mPendingItems.addAll(items);
+        }
+        if (schedules) {
+            scheduleFlush();
+        }
+    }
+
+    private void enqueueMutation(Runnable mutation) {
+        checkNotPaged();
+        boolean schedules;
+        synchronized (mPendingMutations) {
+            schedules = mPendingMutations.isEmpty();
+            mPendingMutations.add(mutation);
+            mPendingItems = null;
+        }
+        if (schedules) {
+            scheduleFlush();
+        }
+    }
+
+    private void checkNotBatching() {
+        if (mFrameBatchingEnabled) {
+            throw new IllegalStateException("Positions are not stable while frame batching queues mutations");
+        }
+    }
+
+    private void scheduleFlush() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            getMainHandler().post(mFlushPendingMutations);
+        } else if (Looper.myLooper() == Looper.getMainLooper()) {
+            postFrameFlush();
+        } else {
+            getMainHandler().post(mPostFrameFlush);
+        }
+    }
+
+    private void dropPendingItems() {
+        synchronized (mPendingMutations) {
+            mPendingMutations.clear();
+            mPendingItems = null;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameFlush() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    flushPendingItems();
+                }
+
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    public synchronized void setGroupingEnabled(boolean enabled) {
+        checkNotPaged();
+        if (mGroupingEnabled == enabled) {
+            return;
+        }
+        mGroupingEnabled = enabled;
+        if (enabled) {
+            mMaxScheduledGeneration++;
+            regroupItems();
+        }
+    }
+
+    public boolean isGroupingEnabled() {
+        return mGroupingEnabled;
+    }
+
+    private void regroupItems() {
+        Map<IDENTIFIER, List<ITEM>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < mIndex.mSectionCount; i++) {
+            List<ITEM> group = groups.get(mIndex.mSectionIdentifiers.get(i));
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(mIndex.mSectionIdentifiers.get(i), group);
+            }
+            group.addAll(mIndex.mRawItems.subList(getSectionRawStart(i), getSectionRawEnd(i)));
+        }
+        if (groups.size() == mIndex.mSectionCount) {
+            return;
+        }
+        prepareIndex();
+        int removedCount = getItemCount();
+        mIndex.mRawItems.clear();
+        clearSections();
+        for (Map.Entry<IDENTIFIER, List<ITEM>> e : groups.entrySet()) {
+            if (mComparator != null) {
+                Collections.sort(e.getValue(), mComparator);
+            }
+            appendSection(getItemCount(), e.getKey());
+            mIndex.mRawItems.addAll(e.getValue());
+        }
+        notifyRowsRemoved(0, removedCount);
+        notifyRowsInserted(0, getItemCount());
+    }
+
+    private void addItems(Iterator<? extends ITEM> items) {
+        if (mGroupingEnabled) {
+            addGroupedItems(items);
+            return;
+        } else if (mComparator == null) {
+            appendItems(items);
+            return;
+        }
+        List<ITEM> sorted = new ArrayList<>();
+        while (items.hasNext()) {
+            sorted.add(items.next());
+        }
+        Collections.sort(sorted, mComparator);
+
+        // items ordered before the current last item are placed one by one, the rest is appended at once
+        int tail = 0;
+        if (!mIndex.mRawItems.isEmpty()) {
+            ITEM last = mIndex.mRawItems.get(mIndex.mRawItems.size() - 1);
+            while (tail < sorted.size() && mComparator.compare(last, sorted.get(tail)) > 0) {
+                ITEM item = sorted.get(tail++);
+                insertItems(findSortedRawIndex(item, 0, mIndex.mRawItems.size()), Collections.singletonList(item));
+            }
+        }
+        appendItems(sorted.subList(tail, sorted.size()).iterator());
+    }
+
+    private void addGroupedItems(Iterator<? extends ITEM> items) {
+        Map<IDENTIFIER, List<ITEM>> groups = groupItems(items);
+
+        // existing sections grow in place, so the identifier lookup stays valid until the new sections are appended
+        List<Map.Entry<IDENTIFIER, List<ITEM>>> newGroups = new ArrayList<>();
+        for (Map.Entry<IDENTIFIER, List<ITEM>> e : groups.entrySet()) {
+            int section = findSectionByIdentifier(e.getKey());
+            List<ITEM> group = e.getValue();
+            if (mComparator != null) {
+                Collections.sort(group, mComparator);
+            }
+            if (section < 0) {
+                newGroups.add(e);
+            } else if (mComparator == null) {
+                insertIntoSection(section, getSectionRawEnd(section), group);
+            } else {
+                for (ITEM item : group) {
+                    insertIntoSection(section, findSortedRawIndex(item, getSectionRawStart(section), getSectionRawEnd(section)), Collections.singletonList(item));
+                }
+            }
+        }
+
+        int insertedPosition = getItemCount();
+        for (Map.Entry<IDENTIFIER, List<ITEM>> e : newGroups) {
+            appendSection(getItemCount(), e.getKey());
+            mIndex.mRawItems.addAll(e.getValue());
+        }
+        notifyRowsInserted(insertedPosition, getItemCount() - insertedPosition);
+    }
+
+    private void insertIntoSection(int section, int rawIndex, List<ITEM> items) {
+        mIndex.mRawItems.addAll(rawIndex, items);
+        offsetSectionPositions(section + 1, items.size());
+        notifyRowsInserted(rawIndex + section + 1, items.size());
+    }
+
+    private int findSortedRawIndex(ITEM item, int low, int high) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mComparator.compare(mIndex.mRawItems.get(mid), item) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static <ITEM> boolean isSorted(List<ITEM> items, Comparator<? super ITEM> comparator) {
+        for (int i = 1; i < items.size(); i++) {
+            if (comparator.compare(items.get(i - 1), items.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void appendItems(Iterator<? extends ITEM> items) {
+        int insertedPosition = getItemCount();
+        while (items.hasNext()) {
+            ITEM i = items.next();
+            IDENTIFIER id = resolveIdentifier(i, mIndex.mSectionCount - 1);
+            if (mIndex.mSectionCount < 1 || id != mIndex.mSectionIdentifiers.get(mIndex.mSectionCount - 1)) {
+                appendSection(getItemCount(), id);
+            }
+            mIndex.mRawItems.add(i);
+        }
+        notifyRowsInserted(insertedPosition, getItemCount() - insertedPosition);
+    }
+
+    private void insertItems(int rawIndex, Collection<? extends ITEM> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        final int leftSection = rawIndex > 0 ? findSectionByRawIndex(rawIndex - 1) : -1;
+        final int rightSection = findSectionByRawIndex(rawIndex);
+        final int firstSection = leftSection >= 0 ? leftSection : rightSection;
+
+        // the touched sections are cut at rawIndex and the new items are placed between both parts
+        List<Part<IDENTIFIER>> parts = new ArrayList<>();
+        if (leftSection >= 0) {
+            parts.add(new Part<>(mIndex.mSectionIdentifiers.get(leftSection), rawIndex - getSectionRawStart(leftSection), false, true));
+        }
+        for (ITEM item : items) {
+            IDENTIFIER id = resolveIdentifier(item, leftSection);
+            Part<IDENTIFIER> last = parts.isEmpty() ? null : parts.get(parts.size() - 1);
+            if (last != null && last.inserted && isSameIdentifier(last.identifier, id)) {
+                last.count++;
+            } else {
+                parts.add(new Part<>(id, 1, true, false));
+            }
+        }
+        parts.add(new Part<>(mIndex.mSectionIdentifiers.get(rightSection), getSectionRawEnd(rightSection) - rawIndex, false, rawIndex == getSectionRawStart(rightSection)));
+
+        int oldSectionCount = rightSection - firstSection + 1;
+        int insertedRows = items.size();
+        int position = mIndex.mSectionPositions[firstSection];
+        int insertedPosition = -1;
+        int insertedCount = 0;
+
+        mIndex.mRawItems.addAll(rawIndex, items);
+        removeSections(firstSection, oldSectionCount);
+
+        int section = firstSection;
+        for (int i = 0; i < parts.size(); ) {
+            int end = i + 1;
+            boolean hasOldHeader = parts.get(i).hasOldHeader;
+            while (end < parts.size() && isSameIdentifier(parts.get(i).identifier, parts.get(end).identifier)) {
+                hasOldHeader |= parts.get(end).hasOldHeader;
+                end++;
+            }
+            insertSection(section++, position, parts.get(i).identifier);
+            if (!hasOldHeader) {
+                insertedRows++;
+            }
+
+            // header row, followed by the item rows of each merged part
+            for (int j = i - 1; j < end; j++) {
+                boolean inserted = j < i ? !hasOldHeader : parts.get(j).inserted;
+                int count = j < i ? 1 : parts.get(j).count;
+                if (inserted && insertedPosition + insertedCount == position) {
+                    insertedCount += count;
+                } else if (inserted) {
+                    notifyRowsInserted(insertedPosition, insertedCount);
+                    insertedPosition = position;
+                    insertedCount = count;
+                }
+                position += count;
+            }
+            i = end;
+        }
+        notifyRowsInserted(insertedPosition, insertedCount);
+        offsetSectionPositions(section, insertedRows);
     }
 
     @Override
-    public int findStickyPositionByIdentifier(IDENTIFIER identifier) {
-        for (int i = 0; i < this.getItemCount(); i++) {
-            Item itm = get(i);
-            if (itm.isIdentifier() && itm.identifier.equals(identifier)) {
-                return i;
+    public void remove(final ITEM item) {
+        if (mFrameBatchingEnabled) {
+            enqueueMutation(new Runnable() {
+
+                @Override
+                public void run() {
+                    applyRemove(item);
+                }
+
+            });
+            return;
+        }
+        flushPendingItems();
+        applyRemove(item);
+    }
+
+    private synchronized void applyRemove(ITEM item) {
+        if (mUnfilteredItems != null) {
+            List<ITEM> unfiltered = copyUnfilteredItems();
+            if (unfiltered.remove(item)) {
+                submitItems(unfiltered, mFilter);
             }
+            return;
+        }
+        prepareMutation();
+        mMaxScheduledGeneration++;
+        int index = mIndex.mRawItems.indexOf(item);
+        if (index >= 0) {
+            removeRawItem(index);
         }
-        return RecyclerView.NO_POSITION;
     }
 
-    protected void onItemsChanged() {
-        List<IDENTIFIER> resolvedIds = new LinkedList<>();
-        {
-            for (ITEM i : mRawItems) {
-                IDENTIFIER id = mStickyCreator.getIdentifier(i);
-                if (!mStickyCaches.contains(id)) {
-                    mStickyCaches.add(id);
+    @Override
+    public void update(final ITEM oldItem, final ITEM newItem) {
+        if (mFrameBatchingEnabled) {
+            enqueueMutation(new Runnable() {
+
+                @Override
+                public void run() {
+                    applyUpdate(oldItem, newItem);
                 }
-                resolvedIds.add(id);
+
+            });
+            return;
+        }
+        flushPendingItems();
+        applyUpdate(oldItem, newItem);
+    }
+
+    private synchronized void applyUpdate(ITEM oldItem, ITEM newItem) {
+        if (mUnfilteredItems != null) {
+            List<ITEM> unfiltered = copyUnfilteredItems();
+            int index = unfiltered.indexOf(oldItem);
+            if (index >= 0) {
+                unfiltered.set(index, newItem);
+                submitItems(unfiltered, mFilter);
             }
+            return;
         }
-        {
-            for (IDENTIFIER cachedId : mStickyCaches) {
-                if (!resolvedIds.contains(cachedId)) {
-                    mStickyCaches.remove(cachedId);
+        prepareMutation();
+        int index = mIndex.mRawItems.indexOf(oldItem);
+        if (index < 0) {
+            return;
+        }
+        mMaxScheduledGeneration++;
+        int section = findSectionByRawIndex(index);
+        IDENTIFIER identifier = resolveIdentifier(newItem, section);
+        if (identifier == mIndex.mSectionIdentifiers.get(section) && isInSortedPosition(newItem, index, section)) {
+            mIndex.mRawItems.set(index, newItem);
+            notifyRowsChanged(index + section + 1, 1);
+        } else if (mGroupingEnabled || mComparator != null) {
+            moveRawItem(index, newItem, -1, true);
+        } else {
+            // the item joins the end of a section of its new identifier, only an unknown identifier splits the section in place
+            int targetSection = findSectionByIdentifier(identifier);
+            int targetIndex = index;
+            if (targetSection >= 0) {
+                targetIndex = getSectionRawEnd(targetSection);
+                if (targetIndex > index) {
+                    targetIndex--;
                 }
             }
+            moveRawItem(index, newItem, targetIndex, true);
+        }
+    }
+
+    @Override
+    public synchronized void move(int fromPosition, int toPosition) {
+        checkNotPaged();
+        checkNotBatching();
+        flushPendingItems();
+        if (mComparator != null) {
+            throw new IllegalStateException("Positions are decided by the comparator in sorted mode");
+        } else if (mGroupingEnabled) {
+            throw new IllegalStateException("Positions are decided by the identifier in grouping mode");
+        } else if (isStickyPosition(fromPosition)) {
+            throw new IllegalArgumentException("Position " + fromPosition + " is a sticky header");
+        } else if (toPosition < 0 || toPosition > getItemCount()) {
+            throw new IndexOutOfBoundsException("Invalid position " + toPosition + ", size is " + getItemCount());
+        } else if (mUnfilteredItems != null) {
+            List<ITEM> unfiltered = copyUnfilteredItems();
+            int index = unfiltered.indexOf(getItemByPosition(fromPosition));
+            int targetIndex = findUnfilteredIndexByPosition(unfiltered, toPosition);
+            if (index >= 0) {
+                unfiltered.add(targetIndex > index ? targetIndex - 1 : targetIndex, unfiltered.remove(index));
+                submitItems(unfiltered, mFilter);
+            }
+            return;
+        }
+        prepareMutation();
+        mMaxScheduledGeneration++;
+        int index = findRawIndexByPosition(fromPosition);
+        int targetIndex = findRawIndexByPosition(toPosition);
+        moveRawItem(index, mIndex.mRawItems.get(index), targetIndex > index ? targetIndex - 1 : targetIndex, false);
+    }
+
+    private boolean isInSortedPosition(ITEM item, int rawIndex, int section) {
+        if (mComparator == null) {
+            return true;
+        }
+        int start = mGroupingEnabled ? getSectionRawStart(section) : 0;
+        int end = mGroupingEnabled ? getSectionRawEnd(section) : mIndex.mRawItems.size();
+        return (rawIndex <= start || mComparator.compare(mIndex.mRawItems.get(rawIndex - 1), item) <= 0)
+                && (rawIndex + 1 >= end || mComparator.compare(item, mIndex.mRawItems.get(rawIndex + 1)) <= 0);
+    }
+
+    private void moveRawItem(int rawIndex, ITEM item, int targetIndex, boolean changed) {
+        int fromPosition = rawIndex + findSectionByRawIndex(rawIndex) + 1;
+
+        // the removal and the insertion are recorded first, so the item row can be reported as moved between them
+        ListUpdateCallback callback = mListUpdateCallback;
+        RangeRecorder removed = new RangeRecorder();
+        RangeRecorder inserted = new RangeRecorder();
+        mListUpdateCallback = removed;
+        removeRawItem(rawIndex);
+        mListUpdateCallback = inserted;
+        if (targetIndex < 0) {
+            addItems(Collections.singletonList(item).iterator());
+        } else if (targetIndex == mIndex.mRawItems.size()) {
+            appendItems(Collections.singletonList(item).iterator());
+        } else {
+            insertItems(targetIndex, Collections.singletonList(item));
+        }
+        mListUpdateCallback = callback;
+
+        int toPosition = inserted.position;
+        while (isStickyPosition(toPosition)) {
+            toPosition++;
+        }
+        notifyRowsRemoved(fromPosition + 1, removed.position + removed.count - fromPosition - 1);
+        notifyRowsRemoved(removed.position, fromPosition - removed.position);
+        notifyRowMoved(removed.position, inserted.position);
+        notifyRowsInserted(inserted.position, toPosition - inserted.position);
+        notifyRowsInserted(toPosition + 1, inserted.position + inserted.count - toPosition - 1);
+        if (changed) {
+            notifyRowsChanged(toPosition, 1);
+        }
+    }
+
+    @Override
+    public void removeSection(final IDENTIFIER identifier) {
+        if (mFrameBatchingEnabled) {
+            enqueueMutation(new Runnable() {
+
+                @Override
+                public void run() {
+                    applyRemoveSection(identifier);
+                }
+
+            });
+            return;
+        }
+        flushPendingItems();
+        applyRemoveSection(identifier);
+    }
+
+    private synchronized void applyRemoveSection(final IDENTIFIER identifier) {
+        if (mUnfilteredItems != null) {
+            removeUnfilteredItems(new Predicate<ITEM>() {
+
+                @Override
+                public boolean apply(ITEM item) {
+                    return isSameIdentifier(mStickyCreator.getIdentifier(item), identifier);
+                }
+
+            });
+            return;
+        }
+        prepareMutation();
+        mMaxScheduledGeneration++;
+        for (int section = findSectionByIdentifier(identifier); section >= 0; section = findSectionByIdentifier(identifier)) {
+            removeRawRange(getSectionRawStart(section), getSectionRawEnd(section));
+        }
+    }
+
+    @Override
+    public synchronized void removeRange(int fromPosition, int toPosition) {
+        checkNotPaged();
+        checkNotBatching();
+        flushPendingItems();
+        if (fromPosition < 0 || toPosition > getItemCount() || fromPosition > toPosition) {
+            throw new IndexOutOfBoundsException("Invalid range " + fromPosition + " to " + toPosition + ", size is " + getItemCount());
+        } else if (mUnfilteredItems != null) {
+            removeUnfilteredRange(findRawIndexByPosition(fromPosition), findRawIndexByPosition(toPosition));
+            return;
         }
+        prepareMutation();
+        mMaxScheduledGeneration++;
+        removeRawRange(findRawIndexByPosition(fromPosition), findRawIndexByPosition(toPosition));
+    }
+
+    @Override
+    public void removeAll(final Predicate<? super ITEM> predicate) {
+        if (mFrameBatchingEnabled) {
+            enqueueMutation(new Runnable() {
+
+                @Override
+                public void run() {
+                    applyRemoveAll(predicate);
+                }
+
+            });
+            return;
+        }
+        flushPendingItems();
+        applyRemoveAll(predicate);
+    }
+
+    private synchronized void applyRemoveAll(Predicate<? super ITEM> predicate) {
+        if (mUnfilteredItems != null) {
+            removeUnfilteredItems(predicate);
+            return;
+        }
+        prepareMutation();
+        mMaxScheduledGeneration++;
+
+        // runs are removed from the end, so the raw indexes in front of them stay valid
+        int end = mIndex.mRawItems.size();
+        while (end > 0) {
+            while (end > 0 && !predicate.apply(mIndex.mRawItems.get(end - 1))) {
+                end--;
+            }
+            int start = end;
+            while (start > 0 && predicate.apply(mIndex.mRawItems.get(start - 1))) {
+                start--;
+            }
+            removeRawRange(start, end);
+            end = start;
+        }
+    }
+
+    private void removeUnfilteredRange(int fromIndex, int toIndex) {
+        // the shown items are matched in their order, so equal items outside of the range are kept
+        List<ITEM> unfiltered = new ArrayList<>(mUnfilteredItems.size());
+        int rawIndex = 0;
+        for (ITEM item : mUnfilteredItems) {
+            if (rawIndex < toIndex && isSameItem(item, mIndex.mRawItems.get(rawIndex))) {
+                if (rawIndex++ >= fromIndex) {
+                    continue;
+                }
+            }
+            unfiltered.add(item);
+        }
+        if (unfiltered.size() != mUnfilteredItems.size()) {
+            submitItems(unfiltered, mFilter);
+        }
+    }
+
+    private static boolean isSameItem(@Nullable Object a, @Nullable Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    private void removeUnfilteredItems(Predicate<? super ITEM> predicate) {
+        List<ITEM> unfiltered = new ArrayList<>();
+        for (ITEM item : mUnfilteredItems) {
+            if (!predicate.apply(item)) {
+                unfiltered.add(item);
+            }
+        }
+        if (unfiltered.size() != mUnfilteredItems.size()) {
+            submitItems(unfiltered, mFilter);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        dropPendingItems();
+        mMaxScheduledGeneration++;
+        int removedCount = getItemCount();
+        mPageLoader = null;
+        mRequestedPages = null;
+        mFilter = null;
+        mUnfilteredItems = null;
+        if (mIndexShared) {
+            // the shared index stays with its snapshots, there is nothing to copy from it
+            mIndex = createIndex();
+            mIndexShared = false;
+        } else {
+            mIndex.mRawItems.clear();
+            onItemsChanged();
+        }
+        notifyRowsRemoved(0, removedCount);
+    }
+
+    public synchronized void setPagedSource(List<IDENTIFIER> sectionIdentifiers, int[] sectionItemCounts, int pageSize, IStickyPageLoader<ITEM> loader) {
+        if (sectionIdentifiers.size() != sectionItemCounts.length) {
+            throw new IllegalArgumentException("sectionIdentifiers and sectionItemCounts must have the same length");
+        } else if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        clear();
+
+        for (int i = 0; i < sectionItemCounts.length; i++) {
+            if (sectionItemCounts[i] > 0) {
+                appendSection(getItemCount(), internIdentifier(sectionIdentifiers.get(i)));
+                mIndex.mRawItems.addAll(Collections.<ITEM>nCopies(sectionItemCounts[i], null));
+            }
+        }
+        mPageLoader = loader;
+        mPageSize = pageSize;
+        mRequestedPages = new boolean[(mIndex.mRawItems.size() + pageSize - 1) / pageSize];
+
+        notifyRowsInserted(0, getItemCount());
+    }
+
+    public boolean isPlaceholderPosition(int position) {
+        int section = findSectionByPosition(position);
+        return mIndex.mSectionPositions[section] != position && mIndex.mRawItems.get(position - section - 1) == null;
+    }
+
+    private void prepareMutation() {
+        checkNotPaged();
+        prepareIndex();
+    }
+
+    private void prepareIndex() {
+        if (mIndexShared) {
+            mIndex = mIndex.copy();
+            mIndexShared = false;
+        }
+    }
+
+    private void checkNotPaged() {
+        if (mPageLoader != null) {
+            throw new IllegalStateException("Items of a paged source can only be replaced by clear() or submitList()");
+        }
+    }
+
+    private void loadPagesAround(int rawIndex) {
+        int page = rawIndex / mPageSize;
+        requestPage(page);
+        // request the neighbour the layout is heading to before its rows are bound
+        requestPage(rawIndex % mPageSize < mPageSize / 2 ? page - 1 : page + 1);
+    }
+
+    private void requestPage(final int page) {
+        if (page < 0 || page >= mRequestedPages.length || mRequestedPages[page]) {
+            return;
+        }
+        mRequestedPages[page] = true;
+
+        final IStickyPageLoader<ITEM> loader = mPageLoader;
+        final int generation = mMaxScheduledGeneration;
+        final int startIndex = page * mPageSize;
+        final int count = Math.min(mPageSize, mIndex.mRawItems.size() - startIndex);
+
+        loader.loadPage(startIndex, count, new IStickyPageLoader.Callback<ITEM>() {
+
+            @Override
+            public void onPageLoaded(final List<ITEM> items) {
+                // posted even on the main thread, a synchronous loader would otherwise notify changes while a row is bound or prefetched
+                getMainThreadExecutor().execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        applyLoadedPage(loader, generation, startIndex, count, items);
+                    }
+
+                });
+            }
+
+            @Override
+            public void onPageFailed() {
+                getMainThreadExecutor().execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        releasePage(loader, generation, page);
+                    }
+
+                });
+            }
+
+        });
+    }
+
+    private synchronized void releasePage(IStickyPageLoader<ITEM> loader, int generation, int page) {
+        if (loader == mPageLoader && generation == mMaxScheduledGeneration) {
+            mRequestedPages[page] = false;
+        }
+    }
+
+    private synchronized void applyLoadedPage(IStickyPageLoader<ITEM> loader, int generation, int startIndex, int count, List<ITEM> items) {
+        if (loader != mPageLoader || generation != mMaxScheduledGeneration) {
+            return;
+        } else if (items.size() != count) {
+            // e.g. rows deleted on the backend, the page is requested again instead of crashing the posted runnable
+            mRequestedPages[startIndex / mPageSize] = false;
+            return;
+        }
+        prepareIndex();
+        for (int i = 0; i < count; i++) {
+            mIndex.mRawItems.set(startIndex + i, items.get(i));
+        }
+
+        int rawIndex = startIndex;
+        int endIndex = startIndex + count;
+        for (int section = findSectionByRawIndex(startIndex); rawIndex < endIndex; section++) {
+            int sectionEnd = Math.min(getSectionRawEnd(section), endIndex);
+            notifyRowsChanged(rawIndex + section + 1, sectionEnd - rawIndex);
+            rawIndex = sectionEnd;
+        }
+    }
+
+    @Override
+    public void submitList(@Nullable List<ITEM> items) {
+        submitItems(items != null ? new ArrayList<>(items) : new ArrayList<ITEM>(), mFilter);
+    }
+
+    /**
+     * Shows only the items matching the filter, which is applied off the main thread to the current and the later submitted lists.
+     * Adds, removals and updates meanwhile change the unfiltered items, which are then filtered again.
+     */
+    public void setFilter(@Nullable Predicate<? super ITEM> filter) {
+        checkNotPaged();
+        flushPendingItems();
+        if (filter == null && mFilter == null) {
+            return;
+        }
+        if (mUnfilteredItems == null) {
+            mUnfilteredItems = new ArrayList<>(mIndex.mRawItems);
+        }
+        mFilter = filter;
+        submitItems(mUnfilteredItems, filter);
+    }
+
+    @Nullable
+    public Predicate<? super ITEM> getFilter() {
+        return mFilter;
+    }
+
+    private synchronized void submitItems(final List<ITEM> newItems, @Nullable final Predicate<? super ITEM> filter) {
+        final Comparator<? super ITEM> comparator = mComparator;
+        final boolean groupingEnabled = mGroupingEnabled;
+        dropPendingItems();
+        if (filter == null && newItems.isEmpty()) {
+            clear();
+            return;
+        }
+
+        final int generation = ++mMaxScheduledGeneration;
+        final StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, ?> previous = getSnapshot().mHelper;
+        // the rows of pages not loaded yet have no items to compare
+        final boolean diffs = mPageLoader == null;
+        mUnfilteredItems = newItems;
+        final Executor mainThreadExecutor = getMainThreadExecutor();
+        getDiffExecutor().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (generation != mMaxScheduledGeneration) {
+                    // a newer list or filter is already scheduled
+                    return;
+                }
+                List<ITEM> items = newItems;
+                if (filter != null) {
+                    items = new ArrayList<>();
+                    for (ITEM item : newItems) {
+                        if (filter.apply(item)) {
+                            items.add(item);
+                        }
+                    }
+                }
+                final StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, VH> next = newHelper();
+                next.mComparator = comparator;
+                next.mGroupingEnabled = groupingEnabled;
+                next.addItems(items.iterator());
+
+                final DiffUtil.DiffResult result = diffs && previous.getItemCount() > 0 && next.getItemCount() > 0
+                        ? DiffUtil.calculateDiff(new SectionDiffCallback<>(previous, next))
+                        : null;
+
+                mainThreadExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        applySubmittedIndex(generation, next.mIndex, filter, result);
+                    }
+
+                });
+            }
+
+        });
+    }
+
+    private synchronized void applySubmittedIndex(int generation, Index<ITEM, IDENTIFIER> index, @Nullable Predicate<? super ITEM> filter, @Nullable DiffUtil.DiffResult result) {
+        if (generation != mMaxScheduledGeneration) {
+            return;
+        }
+        if (filter == null) {
+            mUnfilteredItems = null;
+        }
+        mPageLoader = null;
+        mRequestedPages = null;
+        swapIndex(index, false, result);
+    }
+
+    /**
+     * Returns a snapshot of the current items, may be called from any thread.
+     * The snapshot shares the items with the helper, which copies them once before its next mutation.
+     */
+    public synchronized Snapshot<ITEM, IDENTIFIER> getSnapshot() {
+        if (mSnapshot == null || mSnapshot.mRevision != mRevision) {
+            StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, VH> helper = newHelper();
+            helper.mComparator = mComparator;
+            helper.mGroupingEnabled = mGroupingEnabled;
+            helper.mIndex = mIndex;
+            mIndexShared = true;
+            mSnapshot = new Snapshot<>(helper, mRevision, -1, null);
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * Builds the next snapshot and its changes from the current one, may be called from any thread.
+     */
+    public Snapshot<ITEM, IDENTIFIER> createSnapshot(List<ITEM> items) {
+        Snapshot<ITEM, IDENTIFIER> base = getSnapshot();
+        StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, VH> next = newHelper();
+        next.mComparator = base.mHelper.mComparator;
+        next.mGroupingEnabled = base.mHelper.mGroupingEnabled;
+        next.addItems(items.iterator());
+
+        DiffUtil.DiffResult result = base.getItemCount() > 0 && next.getItemCount() > 0
+                ? DiffUtil.calculateDiff(new SectionDiffCallback<>(base.mHelper, next))
+                : null;
+        return new Snapshot<>(next, -1, base.mRevision, result);
+    }
+
+    /**
+     * Swaps in a snapshot from {@link #createSnapshot(List)} on the main thread, may be called from any thread.
+     */
+    public synchronized void applySnapshot(final Snapshot<ITEM, IDENTIFIER> snapshot) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            getMainHandler().post(new Runnable() {
+
+                @Override
+                public void run() {
+                    applySnapshot(snapshot);
+                }
+
+            });
+            return;
+        } else if (snapshot.mBaseRevision != mRevision || mPageLoader != null || mFilter != null) {
+            // the items changed after the snapshot was built, so its changes are calculated again
+            submitList(snapshot.getItems());
+            return;
+        }
+        dropPendingItems();
+        mMaxScheduledGeneration++;
+        mUnfilteredItems = null;
+
+        // the snapshot keeps the index, so the helper copies it before its next mutation
+        swapIndex(snapshot.mHelper.mIndex, true, snapshot.mDiffResult);
+        mSnapshot = new Snapshot<>(snapshot.mHelper, mRevision, -1, null);
+    }
+
+    private void swapIndex(Index<ITEM, IDENTIFIER> index, boolean shared, @Nullable DiffUtil.DiffResult result) {
+        int removedCount = getItemCount();
+        onRowsModified();
+        mIndex = index;
+        mIndexShared = shared;
+        if (result == null) {
+            notifyRowsRemoved(0, removedCount);
+            notifyRowsInserted(0, getItemCount());
+        } else if (mListUpdateCallback != null) {
+            result.dispatchUpdatesTo(mListUpdateCallback);
+        }
+    }
+
+    private void onRowsModified() {
+        mRevision++;
+    }
+
+    @Override
+    public ITEM getItemByPosition(int position) {
+        int section = findSectionByPosition(position);
+        return mIndex.mSectionPositions[section] == position ? null : mIndex.mRawItems.get(position - section - 1);
+    }
+
+    @Override
+    public IDENTIFIER getIdentifierByPosition(int position) {
+        return mIndex.mSectionIdentifiers.get(findSectionByPosition(position));
+    }
+
+    @Override
+    public IStickyCreator<ITEM, IDENTIFIER, VH> getStickyCreator() {
+        return mStickyCreator;
+    }
+
+    @Override
+    public int getDefaultViewType() {
+        return mDefaultItemType;
+    }
+
+    @Override
+    public int getStickyViewType() {
+        return mStickyViewType;
+    }
+
+    @Override
+    public int findStickyPositionByIdentifier(IDENTIFIER identifier) {
+        int section = findSectionByIdentifier(identifier);
+        return section >= 0 ? mIndex.mSectionPositions[section] : RecyclerView.NO_POSITION;
+    }
+
+    @Override
+    public int getSectionCount() {
+        return mIndex.mSectionCount;
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        return findSectionByPosition(position);
+    }
+
+    @Override
+    public int getPositionForSection(int section) {
+        checkSection(section);
+        return mIndex.mSectionPositions[section];
+    }
+
+    @Override
+    public int getItemCountInSection(int section) {
+        checkSection(section);
+        return getSectionRawEnd(section) - getSectionRawStart(section);
+    }
+
+    private void checkSection(int section) {
+        if (section < 0 || section >= mIndex.mSectionCount) {
+            throw new IndexOutOfBoundsException("Invalid section " + section + ", size is " + mIndex.mSectionCount);
+        }
+    }
+
+    protected int findSectionByIdentifier(IDENTIFIER identifier) {
+        if (mIndex.mSectionTableInvalidated) {
+            rebuildSectionTable();
+        }
+        int[] table = mIndex.mSectionTable;
+        int mask = table.length - 1;
+        for (int i = hashIdentifier(identifier) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int section = table[i] - 1;
+            if (isSameIdentifier(mIndex.mSectionIdentifiers.get(section), identifier)) {
+                return section;
+            }
+        }
+        return -1;
+    }
+
+    private static int hashIdentifier(Object identifier) {
+        int h = identifier.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private void addToSectionTable(int section) {
+        if (mIndex.mSectionCount * 2 > mIndex.mSectionTable.length) {
+            rebuildSectionTable();
+            return;
+        }
+        IDENTIFIER identifier = mIndex.mSectionIdentifiers.get(section);
+        int mask = mIndex.mSectionTable.length - 1;
+        int i = hashIdentifier(identifier) & mask;
+        for (; mIndex.mSectionTable[i] != 0; i = (i + 1) & mask) {
+            if (isSameIdentifier(mIndex.mSectionIdentifiers.get(mIndex.mSectionTable[i] - 1), identifier)) {
+                return;
+            }
+        }
+        mIndex.mSectionTable[i] = section + 1;
+    }
+
+    private void rebuildSectionTable() {
+        int capacity = INITIAL_SECTION_CAPACITY * 2;
+        while (capacity < mIndex.mSectionCount * 2) {
+            capacity <<= 1;
+        }
+        if (mIndex.mSectionTable.length < capacity || mIndex.mSectionTable.length > capacity * 4) {
+            mIndex.mSectionTable = new int[capacity];
+        } else {
+            Arrays.fill(mIndex.mSectionTable, 0);
+        }
+        mIndex.mSectionTableInvalidated = false;
+        for (int i = 0; i < mIndex.mSectionCount; i++) {
+            addToSectionTable(i);
+        }
+    }
+
+    /**
+     * Releases the spare capacity of the items and the section index, e.g. after loading a large list.
+     */
+    public synchronized void trimToSize() {
+        prepareIndex();
+        mIndex.trimToSize();
+        rebuildSectionTable();
+    }
+
+    protected IDENTIFIER internIdentifier(IDENTIFIER identifier) {
+        int section = findSectionByIdentifier(identifier);
+        return section >= 0 ? mIndex.mSectionIdentifiers.get(section) : identifier;
+    }
+
+    protected boolean isSameIdentifier(IDENTIFIER a, IDENTIFIER b) {
+        return a == b || a.equals(b);
+    }
+
+    protected boolean isSameSection(int a, int b) {
+        return isSameIdentifier(mIndex.mSectionIdentifiers.get(a), mIndex.mSectionIdentifiers.get(b));
+    }
+
+    protected IDENTIFIER resolveIdentifier(ITEM item, int candidateSection) {
+        IDENTIFIER id = mStickyCreator.getIdentifier(item);
+        if (candidateSection >= 0 && isSameIdentifier(mIndex.mSectionIdentifiers.get(candidateSection), id)) {
+            return mIndex.mSectionIdentifiers.get(candidateSection);
+        }
+        return internIdentifier(id);
+    }
+
+    /**
+     * Groups the items by their identifier in encounter order, for the grouping mode.
+     */
+    protected Map<IDENTIFIER, List<ITEM>> groupItems(Iterator<? extends ITEM> items) {
+        Map<IDENTIFIER, List<ITEM>> groups = new LinkedHashMap<>();
+        while (items.hasNext()) {
+            ITEM item = items.next();
+            IDENTIFIER id = resolveIdentifier(item, -1);
+            List<ITEM> group = groups.get(id);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(id, group);
+            }
+            group.add(item);
+        }
+        return groups;
+    }
+
+    /**
+     * Creates an empty helper of the same kind, used to build the next items off the main thread.
+     */
+    protected StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, VH> newHelper() {
+        return new StickyRecyclerAdapterHelper<>(mStickyCreator, mStickyViewType, mDefaultItemType);
+    }
+
+    /**
+     * Creates the empty index of a new helper, called from the constructor.
+     */
+    protected Index<ITEM, IDENTIFIER> createIndex() {
+        return new Index<>();
+    }
+
+    protected Index<ITEM, IDENTIFIER> getIndex() {
+        return mIndex;
+    }
+
+    protected IDENTIFIER getSectionIdentifier(int section) {
+        return mIndex.mSectionIdentifiers.get(section);
+    }
+
+    protected void onSectionAdded(int section) {
+        // no-op
+    }
+
+    protected void onSectionsRemoved(int fromSection, int count) {
+        // no-op
+    }
+
+    protected void onItemsChanged() {
+        clearSections();
+        for (int i = 0; i < mIndex.mRawItems.size(); i++) {
+            IDENTIFIER id = resolveIdentifier(mIndex.mRawItems.get(i), mIndex.mSectionCount - 1);
+            if (mIndex.mSectionCount < 1 || id != mIndex.mSectionIdentifiers.get(mIndex.mSectionCount - 1)) {
+                appendSection(i + mIndex.mSectionCount, id);
+            }
+        }
+    }
+
+    private void clearSections() {
+        onSectionsRemoved(0, mIndex.mSectionCount);
+        mIndex.mSectionIdentifiers.clear();
+        mIndex.mSectionCount = 0;
+        mIndex.mSectionOccurrences = null;
+        rebuildSectionTable();
+    }
+
+    private void appendSection(int position, IDENTIFIER identifier) {
+        if (mIndex.mSectionCount == mIndex.mSectionPositions.length) {
+            mIndex.mSectionPositions = Arrays.copyOf(mIndex.mSectionPositions, mIndex.mSectionCount * 2);
+        }
+        mIndex.mSectionPositions[mIndex.mSectionCount++] = position;
+        mIndex.mSectionIdentifiers.add(identifier);
+        mIndex.mSectionOccurrences = null;
+        if (!mIndex.mSectionTableInvalidated) {
+            addToSectionTable(mIndex.mSectionCount - 1);
+        }
+        onSectionAdded(mIndex.mSectionCount - 1);
+    }
+
+    private void insertSection(int section, int position, IDENTIFIER identifier) {
+        if (mIndex.mSectionCount == mIndex.mSectionPositions.length) {
+            mIndex.mSectionPositions = Arrays.copyOf(mIndex.mSectionPositions, mIndex.mSectionCount * 2);
+        }
+        System.arraycopy(mIndex.mSectionPositions, section, mIndex.mSectionPositions, section + 1, mIndex.mSectionCount - section);
+        mIndex.mSectionPositions[section] = position;
+        mIndex.mSectionIdentifiers.add(section, identifier);
+        mIndex.mSectionCount++;
+        mIndex.mSectionTableInvalidated = true;
+        mIndex.mSectionOccurrences = null;
+        onSectionAdded(section);
+    }
+
+    private void removeSections(int fromSection, int count) {
+        System.arraycopy(mIndex.mSectionPositions, fromSection + count, mIndex.mSectionPositions, fromSection, mIndex.mSectionCount - fromSection - count);
+        mIndex.mSectionIdentifiers.subList(fromSection, fromSection + count).clear();
+        mIndex.mSectionCount -= count;
+        mIndex.mSectionTableInvalidated = true;
+        mIndex.mSectionOccurrences = null;
+        onSectionsRemoved(fromSection, count);
+    }
+
+    private void offsetSectionPositions(int fromSection, int offset) {
+        for (int i = fromSection; i < mIndex.mSectionCount; i++) {
+            mIndex.mSectionPositions[i] += offset;
+        }
+    }
+
+    protected int findSectionByRawIndex(int rawIndex) {
+        int low = 0;
+        int high = mIndex.mSectionCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mIndex.mSectionPositions[mid] - mid <= rawIndex) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    protected int getSectionRawStart(int section) {
+        return mIndex.mSectionPositions[section] - section;
+    }
+
+    protected int getSectionRawEnd(int section) {
+        return section + 1 < mIndex.mSectionCount ? getSectionRawStart(section + 1) : mIndex.mRawItems.size();
+    }
+
+    protected void removeRawItem(int rawIndex) {
+        removeRawRange(rawIndex, rawIndex + 1);
+    }
+
+    protected void removeRawRange(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+        int first = findSectionByRawIndex(fromIndex);
+        int last = findSectionByRawIndex(toIndex - 1);
+        boolean keepsFirst = getSectionRawStart(first) < fromIndex || (first == last && toIndex < getSectionRawEnd(last));
+        boolean keepsLast = toIndex < getSectionRawEnd(last) || (first == last && keepsFirst);
+
+        // sections [fromSection, toSection) lose all of their items
+        int fromSection = keepsFirst ? first + 1 : first;
+        int toSection = keepsLast ? last : last + 1;
+        boolean merges = fromSection > 0 && toSection < mIndex.mSectionCount && fromSection - 1 != toSection && isSameSection(fromSection - 1, toSection);
+
+        int startPosition = keepsFirst ? fromIndex + first + 1 : mIndex.mSectionPositions[first];
+        int endPosition = toIndex + last + 1;
+        boolean keepsLastHeader = keepsLast && last != first && !merges;
+        int lastHeaderPosition = mIndex.mSectionPositions[last];
+
+        if (merges && !keepsLast) {
+            // the header of the following section is dropped, it is joined into the previous section
+            endPosition++;
+        }
+
+        mIndex.mRawItems.subList(fromIndex, toIndex).clear();
+        if (toSection > fromSection || merges) {
+            removeSections(fromSection, toSection - fromSection + (merges ? 1 : 0));
+        }
+        if (keepsLastHeader) {
+            mIndex.mSectionPositions[fromSection] = startPosition;
+            offsetSectionPositions(fromSection + 1, startPosition + 1 - endPosition);
+            notifyRowsRemoved(lastHeaderPosition + 1, endPosition - lastHeaderPosition - 1);
+            notifyRowsRemoved(startPosition, lastHeaderPosition - startPosition);
+        } else {
+            offsetSectionPositions(fromSection, startPosition - endPosition);
+            notifyRowsRemoved(startPosition, endPosition - startPosition);
+        }
+    }
+
+    private Executor getDiffExecutor() {
+        if (mDiffExecutor != null) {
+            return mDiffExecutor;
+        }
+        synchronized (StickyRecyclerAdapterHelper.class) {
+            if (sDefaultDiffExecutor == null) {
+                sDefaultDiffExecutor = Executors.newSingleThreadExecutor();
+            }
+            return sDefaultDiffExecutor;
+        }
+    }
+
+    private Executor getMainThreadExecutor() {
+        if (mMainThreadExecutor != null) {
+            return mMainThreadExecutor;
+        }
+        final Handler mainHandler = getMainHandler();
+        return new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+
+        };
+    }
+
+    private static Handler getMainHandler() {
+        synchronized (StickyRecyclerAdapterHelper.class) {
+            if (sMainHandler == null) {
+                sMainHandler = new Handler(Looper.getMainLooper());
+            }
+            return sMainHandler;
+        }
+    }
+
+    protected void notifyRowsInserted(int position, int count) {
+        if (count > 0) {
+            onRowsModified();
+            if (mListUpdateCallback != null) {
+                mListUpdateCallback.onInserted(position, count);
+            }
+        }
+    }
+
+    protected void notifyRowsRemoved(int position, int count) {
+        if (count > 0) {
+            onRowsModified();
+            if (mListUpdateCallback != null) {
+                mListUpdateCallback.onRemoved(position, count);
+            }
+        }
+    }
+
+    protected void notifyRowMoved(int fromPosition, int toPosition) {
+        if (fromPosition != toPosition) {
+            onRowsModified();
+            if (mListUpdateCallback != null) {
+                mListUpdateCallback.onMoved(fromPosition, toPosition);
+            }
+        }
+    }
+
+    protected void notifyRowsChanged(int position, int count) {
+        if (count > 0) {
+            onRowsModified();
+            if (mListUpdateCallback != null) {
+                mListUpdateCallback.onChanged(position, count, null);
+            }
+        }
+    }
+
+    private static class SectionDiffCallback<ITEM, IDENTIFIER> extends DiffUtil.Callback {
+
+        private final StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, ?> mOld;
+        private final StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, ?> mNew;
+
+        @Nullable
+        private final IStickyItemCallback<ITEM> mItemCallback;
+
+        @Nullable
+        private final IStickyIdCreator<ITEM, IDENTIFIER> mIdCreator;
+
+        public SectionDiffCallback(StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, ?> oldHelper, StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, ?> newHelper) {
+            mOld = oldHelper;
+            mNew = newHelper;
+            mItemCallback = newHelper.mStickyCreator instanceof IStickyItemCallback ? (IStickyItemCallback<ITEM>) newHelper.mStickyCreator : null;
+            mIdCreator = newHelper.getIdCreator();
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.getItemCount();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.getItemCount();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            boolean isOldSticky = mOld.isStickyPosition(oldItemPosition);
+            boolean isNewSticky = mNew.isStickyPosition(newItemPosition);
+            if (isOldSticky != isNewSticky) {
+                return false;
+            } else if (isOldSticky) {
+                return mOld.isSameIdentifier(mOld.getIdentifierByPosition(oldItemPosition), mNew.getIdentifierByPosition(newItemPosition));
+            }
+            ITEM oldItem = mOld.getItemByPosition(oldItemPosition);
+            ITEM newItem = mNew.getItemByPosition(newItemPosition);
+            if (mItemCallback != null) {
+                return mItemCallback.areItemsTheSame(oldItem, newItem);
+            } else if (mIdCreator != null) {
+                return mIdCreator.getItemId(oldItem) == mIdCreator.getItemId(newItem);
+            }
+            return oldItem.equals(newItem);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            if (mOld.isStickyPosition(oldItemPosition)) {
+                return true;
+            }
+            ITEM oldItem = mOld.getItemByPosition(oldItemPosition);
+            ITEM newItem = mNew.getItemByPosition(newItemPosition);
+            return mItemCallback != null ? mItemCallback.areContentsTheSame(oldItem, newItem) : oldItem.equals(newItem);
+        }
+
+    }
+
+    private static class RangeRecorder implements ListUpdateCallback {
+
+        public int position = -1;
+        public int count = 0;
+
+        @Override
+        public void onInserted(int position, int count) {
+            record(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            record(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            throw new UnsupportedOperationException();
+        }
+
+        private void record(int position, int count) {
+            if (this.position >= 0) {
+                throw new IllegalStateException("A single item is expected to touch one range of rows");
+            }
+            this.position = position;
+            this.count = count;
+        }
+
+    }
+
+    private static class Part<IDENTIFIER> {
+
+        public final IDENTIFIER identifier;
+        public final boolean inserted;
+        public final boolean hasOldHeader;
+        public int count;
+
+        public Part(IDENTIFIER identifier, int count, boolean inserted, boolean hasOldHeader) {
+            this.identifier = identifier;
+            this.count = count;
+            this.inserted = inserted;
+            this.hasOldHeader = hasOldHeader;
+        }
+
+    }
+
+    /**
+     * Items and the sections over them, which are no longer mutated once a snapshot shares them.
+     */
+    protected static class Index<ITEM, IDENTIFIER> {
+
+        final ArrayList<ITEM> mRawItems;
+
+        final ArrayList<IDENTIFIER> mSectionIdentifiers;
+
+        int[] mSectionPositions;
+
+        int mSectionCount;
+
+        // open addressing table holding section + 1 for the first section of each identifier, 0 marks a free slot
+        // only the main thread uses it, so it is still rebuilt lazily after the index is shared
+        int[] mSectionTable;
+
+        boolean mSectionTableInvalidated;
+
+        // occurrence of each section among the sections of its identifier, built for the ids of sticky rows on the main thread
+        @Nullable
+        int[] mSectionOccurrences;
+
+        protected Index() {
+            mRawItems = new ArrayList<>();
+            mSectionIdentifiers = new ArrayList<>();
+            mSectionPositions = new int[INITIAL_SECTION_CAPACITY];
+            mSectionCount = 0;
+            mSectionTable = new int[INITIAL_SECTION_CAPACITY * 2];
+            mSectionTableInvalidated = false;
+            mSectionOccurrences = null;
+        }
+
+        protected Index(Index<ITEM, IDENTIFIER> source) {
+            mRawItems = new ArrayList<>(source.mRawItems);
+            mSectionIdentifiers = new ArrayList<>(source.mSectionIdentifiers);
+            mSectionPositions = Arrays.copyOf(source.mSectionPositions, Math.max(source.mSectionCount, INITIAL_SECTION_CAPACITY));
+            mSectionCount = source.mSectionCount;
+            mSectionTable = source.mSectionTable.clone();
+            mSectionTableInvalidated = source.mSectionTableInvalidated;
+            // replaced instead of mutated, so it can be shared until the sections change
+            mSectionOccurrences = source.mSectionOccurrences;
+        }
+
+        protected Index<ITEM, IDENTIFIER> copy() {
+            return new Index<>(this);
+        }
+
+        protected void trimToSize() {
+            mRawItems.trimToSize();
+            mSectionIdentifiers.trimToSize();
+            mSectionPositions = Arrays.copyOf(mSectionPositions, Math.max(mSectionCount, INITIAL_SECTION_CAPACITY));
+        }
+
+    }
+
+    public static final class Snapshot<ITEM, IDENTIFIER> {
+
+        private final StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, ?> mHelper;
+        private final int mRevision;
+        private final int mBaseRevision;
+
+        @Nullable
+        private final DiffUtil.DiffResult mDiffResult;
+
+        private Snapshot(StickyRecyclerAdapterHelper<ITEM, IDENTIFIER, ?> helper, int revision, int baseRevision, @Nullable DiffUtil.DiffResult diffResult) {
+            mHelper = helper;
+            mRevision = revision;
+            mBaseRevision = baseRevision;
+            mDiffResult = diffResult;
+        }
+
+        public List<ITEM> getItems() {
+            return Collections.unmodifiableList(mHelper.mIndex.mRawItems);
+        }
+
+        public int getItemCount() {
+            return mHelper.getItemCount();
+        }
+
+        public boolean isStickyPosition(int position) {
+            return mHelper.isStickyPosition(position);
+        }
+
+        public ITEM getItemByPosition(int position) {
+            return mHelper.getItemByPosition(position);
+        }
+
+        public IDENTIFIER getIdentifierByPosition(int position) {
+            return mHelper.getIdentifierByPosition(position);
+        }
+
+        public int getSectionCount() {
+            return mHelper.getSectionCount();
+        }
+
+        public int getSectionForPosition(int position) {
+            return mHelper.getSectionForPosition(position);
+        }
+
+        public int getPositionForSection(int section) {
+            return mHelper.getPositionForSection(section);
+        }
+
+        public int getItemCountInSection(int section) {
+            return mHelper.getItemCountInSection(section);
+        }
+
     }
 
     protected class Item {
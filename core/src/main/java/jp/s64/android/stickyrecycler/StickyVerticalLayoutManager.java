@@ -16,10 +16,14 @@
 
 package jp.s64.android.stickyrecycler;
 
+import android.graphics.PointF;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
 
-public class StickyVerticalLayoutManager<ITEM, IDENTIFIER, ADAPTER extends RecyclerView.Adapter<VH> & IStickyRecyclerAdapter<ITEM, IDENTIFIER, VH>, VH extends RecyclerView.ViewHolder> extends RecyclerView.LayoutManager {
+public class StickyVerticalLayoutManager<ITEM, IDENTIFIER, ADAPTER extends RecyclerView.Adapter<VH> & IStickyRecyclerAdapter<ITEM, IDENTIFIER, VH>, VH extends RecyclerView.ViewHolder> extends RecyclerView.LayoutManager implements RecyclerView.SmoothScroller.ScrollVectorProvider {
 
     protected final StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER, VH> mHelper;
 
@@ -63,6 +67,39 @@ public class StickyVerticalLayoutManager<ITEM, IDENTIFIER, ADAPTER extends Recyc
         mHelper.smoothScrollToPosition(recyclerView, state, position);
     }
 
+    @Override
+    public PointF computeScrollVectorForPosition(int targetPosition) {
+        return mHelper.computeScrollVectorForPosition(targetPosition);
+    }
+
+    @Override
+    public void collectAdjacentPrefetchPositions(int dx, int dy, RecyclerView.State state, LayoutPrefetchRegistry layoutPrefetchRegistry) {
+        mHelper.collectAdjacentPrefetchPositions(dx, dy, state, layoutPrefetchRegistry);
+    }
+
+    @Override
+    public void collectInitialPrefetchPositions(int adapterItemCount, LayoutPrefetchRegistry layoutPrefetchRegistry) {
+        mHelper.collectInitialPrefetchPositions(adapterItemCount, layoutPrefetchRegistry);
+    }
+
+    public void setInitialPrefetchItemCount(int itemCount) {
+        mHelper.setInitialPrefetchItemCount(itemCount);
+    }
+
+    public int getInitialPrefetchItemCount() {
+        return mHelper.getInitialPrefetchItemCount();
+    }
+
+    @Override
+    public Parcelable onSaveInstanceState() {
+        return mHelper.onSaveInstanceState();
+    }
+
+    @Override
+    public void onRestoreInstanceState(Parcelable state) {
+        mHelper.onRestoreInstanceState(state);
+    }
+
     @Override
     public void onAdapterChanged(RecyclerView.Adapter oldAdapter, RecyclerView.Adapter newAdapter) {
         mHelper.onAdapterChanged(oldAdapter, newAdapter);
@@ -92,4 +129,56 @@ public class StickyVerticalLayoutManager<ITEM, IDENTIFIER, ADAPTER extends Recyc
         mHelper.removeStickyRecyclerAdapterListener(listener);
     }
 
+    public static class SavedState implements Parcelable {
+
+        public static final Creator<SavedState> CREATOR = new Creator<SavedState>() {
+
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+
+        };
+
+        final int mAnchorPosition;
+        final int mAnchorOffset;
+
+        @Nullable
+        final Object mStickyIdentifier;
+
+        SavedState(int anchorPosition, int anchorOffset, @Nullable Object stickyIdentifier) {
+            mAnchorPosition = anchorPosition;
+            mAnchorOffset = anchorOffset;
+            mStickyIdentifier = stickyIdentifier;
+        }
+
+        SavedState(Parcel in) {
+            mAnchorPosition = in.readInt();
+            mAnchorOffset = in.readInt();
+            mStickyIdentifier = in.readValue(SavedState.class.getClassLoader());
+        }
+
+        boolean hasValidAnchor() {
+            return mAnchorPosition >= 0;
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            dest.writeInt(mAnchorPosition);
+            dest.writeInt(mAnchorOffset);
+            dest.writeValue(mStickyIdentifier);
+        }
+
+    }
+
 }
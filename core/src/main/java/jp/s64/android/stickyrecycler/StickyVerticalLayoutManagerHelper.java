@@ -16,12 +16,16 @@
 
 package jp.s64.android.stickyrecycler;
 
+import android.graphics.PointF;
+import android.os.Parcelable;
 import android.support.annotation.Nullable;
+import android.support.v7.widget.LinearSmoothScroller;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
 
 import com.google.common.base.Objects;
 
+import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -41,6 +45,19 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
 
     private final boolean mAutoDrawingOrder;
 
+    private int[] mChildPositions = new int[0];
+    private boolean[] mChildSticky = new boolean[0];
+    private int[] mChildTops = new int[0];
+    private int[] mChildBottoms = new int[0];
+    private int mChildCacheCount = 0;
+
+    private int mPendingScrollPosition = RecyclerView.NO_POSITION;
+
+    @Nullable
+    private StickyVerticalLayoutManager.SavedState mPendingSavedState = null;
+
+    private int mInitialPrefetchItemCount = 2;
+
     public StickyVerticalLayoutManagerHelper(RecyclerView.LayoutManager self, boolean autoDrawingOrder) {
         this.self = self;
         mAutoDrawingOrder = autoDrawingOrder;
@@ -79,37 +96,130 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
     }
 
     public void onLayoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state) {
+        int anchorPosition = 0;
+        int anchorOffset = self.getPaddingTop();
+        boolean pinSticky = false;
+
+        if (mPendingScrollPosition != RecyclerView.NO_POSITION) {
+            anchorPosition = mPendingScrollPosition;
+            pinSticky = true;
+            mPendingScrollPosition = RecyclerView.NO_POSITION;
+        } else if (mPendingSavedState != null) {
+            if (state.getItemCount() > 0) {
+                StickyVerticalLayoutManager.SavedState saved = mPendingSavedState;
+                mPendingSavedState = null;
+                if (saved.hasValidAnchor()) {
+                    anchorPosition = Math.min(saved.mAnchorPosition, state.getItemCount() - 1);
+                    anchorOffset = saved.mAnchorOffset;
+                    if (saved.mStickyIdentifier != null && !saved.mStickyIdentifier.equals(mCurrentAdapter.getIdentifierByPosition(anchorPosition))) {
+                        int stickyPosition = mCurrentAdapter.findStickyPositionByIdentifier((IDENTIFIER) saved.mStickyIdentifier);
+                        if (stickyPosition >= 0) {
+                            anchorPosition = stickyPosition;
+                            anchorOffset = self.getPaddingTop();
+                        }
+                    }
+                }
+            }
+        } else if (self.getChildCount() > 0) {
+            refreshChildCache();
+            int anchor = findAnchorChildIndex();
+            if (anchor >= 0) {
+                anchorPosition = self.getPosition(self.getChildAt(anchor));
+                anchorOffset = mChildTops[anchor];
+            }
+        }
 
-        if (self.getChildCount() < 1) { // FIXME(shuma): improve this
-            self.detachAndScrapAttachedViews(recycler);
-
-            final int firstTop = self.getPaddingTop();
-            final int firstPosition = 0;
+        layoutFromAnchor(anchorPosition, anchorOffset, pinSticky, recycler, state);
+    }
 
-            int parentLeft, parentRight, parentBottom;
-            {
-                parentLeft = calcParentLeft();
-                parentRight = calcParentRight();
-                parentBottom = calcParentBottom();
-            }
-            int nextTop;
-            {
-                nextTop = firstTop;
+    protected int findAnchorChildIndex() {
+        final int parentTop = self.getPaddingTop();
+        int resolved = -1;
+        int lastMinTop = Integer.MAX_VALUE;
+        // headers may be pinned or pushed away from their own rows, so anchor on a normal row when one is visible
+        for (int pass = 1; pass <= 2 && resolved < 0; pass++) {
+            for (int i = 0; i < mChildCacheCount; i++) {
+                RecyclerView.LayoutParams params = (RecyclerView.LayoutParams) self.getChildAt(i).getLayoutParams();
+                if (params.isItemRemoved() || mChildBottoms[i] <= parentTop || (pass == 1 && mChildSticky[i])) {
+                    continue;
+                }
+                if (mChildTops[i] < lastMinTop) {
+                    lastMinTop = mChildTops[i];
+                    resolved = i;
+                }
             }
+        }
+        return resolved;
+    }
 
-            for (int i = firstPosition; i < state.getItemCount() && nextTop < parentBottom; i++) {
-                View v = recycler.getViewForPosition(i);
-                self.addView(v, i);
+    protected void layoutFromAnchor(int anchorPosition, int anchorOffset, boolean pinSticky, RecyclerView.Recycler recycler, RecyclerView.State state) {
+        self.detachAndScrapAttachedViews(recycler);
+        mCurrentStickyView = null;
 
-                self.measureChildWithMargins(v, 0, 0);
+        final int itemCount = state.getItemCount();
+        if (itemCount < 1) {
+            return;
+        }
+        anchorPosition = Math.max(0, Math.min(anchorPosition, itemCount - 1));
 
-                int bottom = nextTop + self.getDecoratedMeasuredHeight(v);
+        final int parentLeft, parentRight, parentTop, parentBottom;
+        {
+            parentLeft = calcParentLeft();
+            parentRight = calcParentRight();
+            parentTop = self.getPaddingTop();
+            parentBottom = calcParentBottom();
+        }
 
-                self.layoutDecoratedWithMargins(v, parentLeft, nextTop, parentRight, bottom);
+        int stickyPosition = mCurrentAdapter.getPositionForSection(mCurrentAdapter.getSectionForPosition(anchorPosition));
+        boolean hasSticky = false;
+        if (pinSticky && stickyPosition != anchorPosition) {
+            int bottom = addAndLayoutView(recycler, stickyPosition, -1, parentLeft, parentRight, parentTop, true);
+            anchorOffset = bottom;
+            hasSticky = true;
+        }
 
-                nextTop = bottom;
+        int nextBottom = addAndLayoutView(recycler, anchorPosition, -1, parentLeft, parentRight, anchorOffset, true);
+
+        int nextTop = anchorOffset;
+        int firstPosition = anchorPosition;
+        while (firstPosition > 0 && nextTop > parentTop && !(hasSticky && firstPosition - 1 == stickyPosition)) {
+            nextTop = addAndLayoutView(recycler, --firstPosition, 0, parentLeft, parentRight, nextTop, false);
+        }
+        if (firstPosition == 0 && nextTop > parentTop) {
+            self.offsetChildrenVertical(parentTop - nextTop);
+            nextBottom += parentTop - nextTop;
+        }
+
+        for (int i = anchorPosition + 1; i < itemCount && nextBottom < parentBottom; i++) {
+            nextBottom = addAndLayoutView(recycler, i, -1, parentLeft, parentRight, nextBottom, true);
+        }
+
+        if (!hasSticky) {
+            stickyPosition = mCurrentAdapter.getPositionForSection(mCurrentAdapter.getSectionForPosition(firstPosition));
+            if (stickyPosition != firstPosition) {
+                addAndLayoutView(recycler, stickyPosition, 0, parentLeft, parentRight, parentTop, true);
             }
         }
+
+        // pins the header and notifies listeners, then pulls earlier rows in when the list ends above the bottom
+        scrollVerticallyBy(0, recycler, state);
+        if (nextBottom < parentBottom) {
+            scrollVerticallyBy(nextBottom - parentBottom, recycler, state);
+        }
+    }
+
+    protected int addAndLayoutView(RecyclerView.Recycler recycler, int position, int index, int left, int right, int edge, boolean fromTop) {
+        View v = recycler.getViewForPosition(position);
+        self.addView(v, index);
+        self.measureChildWithMargins(v, 0, 0);
+        int height = self.getDecoratedMeasuredHeight(v);
+        if (fromTop) {
+            self.layoutDecorated(v, left, edge, right, edge + height);
+            return edge + height;
+        } else {
+            self.layoutDecorated(v, left, edge - height, right, edge);
+            return edge - height;
+        }
     }
 
     protected boolean setCurrentSticky(@Nullable View newView) {
@@ -130,13 +240,70 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
 
     protected boolean isStickyViewItemType(View v) {
         int pos = getAdapterPositionByView(v);
-        return pos >= 0 ? mCurrentAdapter.getItemViewType(pos) == mCurrentAdapter.getStickyViewType() : false;
+        return pos >= 0 ? mCurrentAdapter.isStickyPosition(pos) : false;
     }
 
     protected int getAdapterPositionByView(View v) {
         return mCurrentRecyclerView.getChildAdapterPosition(v);
     }
 
+    protected void refreshChildCache() {
+        final int count = self.getChildCount();
+        if (mChildPositions.length < count) {
+            int capacity = Math.max(count, mChildPositions.length * 2);
+            mChildPositions = new int[capacity];
+            mChildSticky = new boolean[capacity];
+            mChildTops = new int[capacity];
+            mChildBottoms = new int[capacity];
+        }
+        mChildCacheCount = count;
+        for (int i = 0; i < count; i++) {
+            refreshChildCache(i);
+        }
+    }
+
+    protected void refreshChildCache(int index) {
+        View v = self.getChildAt(index);
+        int pos = getAdapterPositionByView(v);
+        mChildPositions[index] = pos;
+        mChildSticky[index] = pos >= 0 && mCurrentAdapter.isStickyPosition(pos);
+        mChildTops[index] = self.getDecoratedTop(v);
+        mChildBottoms[index] = self.getDecoratedBottom(v);
+    }
+
+    protected void insertChildCache(int index) {
+        if (mChildCacheCount + 1 > mChildPositions.length) {
+            refreshChildCache();
+            return;
+        }
+        int moved = mChildCacheCount - index;
+        System.arraycopy(mChildPositions, index, mChildPositions, index + 1, moved);
+        System.arraycopy(mChildSticky, index, mChildSticky, index + 1, moved);
+        System.arraycopy(mChildTops, index, mChildTops, index + 1, moved);
+        System.arraycopy(mChildBottoms, index, mChildBottoms, index + 1, moved);
+        mChildCacheCount++;
+        refreshChildCache(index);
+    }
+
+    protected void offsetChildrenVertical(int dy) {
+        self.offsetChildrenVertical(dy);
+        for (int i = 0; i < mChildCacheCount; i++) {
+            mChildTops[i] += dy;
+            mChildBottoms[i] += dy;
+        }
+    }
+
+    protected int getCurrentStickyIndex() {
+        if (mCurrentStickyView != null) {
+            for (int i = 0; i < mChildCacheCount; i++) {
+                if (mChildSticky[i] && self.getChildAt(i) == mCurrentStickyView) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
     public int scrollVerticallyBy(int dy, RecyclerView.Recycler recycler, RecyclerView.State state) {
 
         final int parentLeft, parentRight, parentHeight;
@@ -146,18 +313,20 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
             parentHeight = calcParentHeight();
         }
 
+        refreshChildCache();
+
         int scrolled = 0;
         if (dy >= 0) {
             while (scrolled < dy) {
-                View bottomNormal = getLastNormalChild();
-                int hangingBottom = Math.max(self.getDecoratedBottom(bottomNormal) - parentHeight, 0);
+                int bottomNormal = getLastNormalChildIndex();
+                int hangingBottom = Math.max(mChildBottoms[bottomNormal] - parentHeight, 0);
                 int scrollBy = -Math.min(dy - scrolled, hangingBottom);
 
                 scrolled -= scrollBy;
 
-                self.offsetChildrenVertical(scrollBy);
+                offsetChildrenVertical(scrollBy);
 
-                int nextPosition = getAdapterPositionByView(bottomNormal) + 1;
+                int nextPosition = mChildPositions[bottomNormal] + 1;
                 if (nextPosition < state.getItemCount() && scrolled < dy) {
                     View v = recycler.getViewForPosition(nextPosition);
 
@@ -165,7 +334,7 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
 
                     self.measureChildWithMargins(v, 0, 0);
 
-                    int nextTop = self.getDecoratedBottom(bottomNormal);
+                    int nextTop = mChildBottoms[bottomNormal];
                     self.layoutDecorated(
                             v,
                             parentLeft,
@@ -173,58 +342,59 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
                             parentRight,
                             nextTop + self.getDecoratedMeasuredHeight(v)
                     );
+                    insertChildCache(mChildCacheCount);
                 } else {
                     break;
                 }
             }
             {
-                View currentSticky = null, nextSticky = null;
+                int currentSticky = -1, nextSticky = -1;
                 {
                     int maxBottom = Integer.MIN_VALUE;
                     int minTop = Integer.MAX_VALUE;
-                    for (int i = 0; i < self.getChildCount(); i++) {
-                        View v = self.getChildAt(i);
-                        if (isStickyViewItemType(v)) {
-                            int bottom = self.getDecoratedBottom(v);
-                            int top = self.getDecoratedTop(v);
+                    for (int i = 0; i < mChildCacheCount; i++) {
+                        if (mChildSticky[i]) {
+                            int bottom = mChildBottoms[i];
+                            int top = mChildTops[i];
                             if (maxBottom <= bottom && top <= 0) {
                                 maxBottom = bottom;
-                                currentSticky = v;
+                                currentSticky = i;
                             }
-                            if (minTop > top && currentSticky != v) {
+                            if (minTop > top && currentSticky != i) {
                                 minTop = top;
-                                nextSticky = v;
+                                nextSticky = i;
                             }
                         }
                     }
-                    if (currentSticky != null) {
-                        resetCurrentStickyPosition(currentSticky);
-                        setCurrentSticky(currentSticky);
+                    if (currentSticky >= 0) {
+                        resetCurrentStickyPosition(self.getChildAt(currentSticky));
+                        refreshChildCache(currentSticky);
+                        setCurrentSticky(self.getChildAt(currentSticky));
                     }
                 }
                 {
                     int diff = 0;
-                    if (currentSticky != null && nextSticky != null) {
-                        int bottom = self.getDecoratedBottom(currentSticky);
-                        int nextTop = self.getDecoratedTop(nextSticky);
-                        diff = nextTop - bottom;
+                    if (currentSticky >= 0 && nextSticky >= 0) {
+                        diff = mChildTops[nextSticky] - mChildBottoms[currentSticky];
                     }
-                    View notifySticky = currentSticky;
+                    int notifySticky = currentSticky;
                     boolean isLinked = false;
-                    if (currentSticky != null && diff < 0) {
+                    if (currentSticky >= 0 && diff < 0) {
+                        View v = self.getChildAt(currentSticky);
                         self.layoutDecorated(
-                                currentSticky,
+                                v,
                                 parentLeft,
                                 0 + diff,
                                 parentRight,
-                                0 + self.getDecoratedMeasuredHeight(currentSticky) + diff
+                                0 + self.getDecoratedMeasuredHeight(v) + diff
                         );
-                        setCurrentSticky(notifySticky = nextSticky);
+                        refreshChildCache(currentSticky);
+                        setCurrentSticky((notifySticky = nextSticky) >= 0 ? self.getChildAt(nextSticky) : null);
                         isLinked = true;
                     }
-                    if (notifySticky != null) {
+                    if (notifySticky >= 0) {
                         notifyStickyChanged(
-                                mCurrentAdapter.getIdentifierByPosition(getAdapterPositionByView(notifySticky)),
+                                mCurrentAdapter.getIdentifierByPosition(mChildPositions[notifySticky]),
                                 isLinked ? IStickyRecyclerAdapterListener.StickyState.LINKED : IStickyRecyclerAdapterListener.StickyState.ALONE,
                                 IStickyRecyclerAdapterListener.ScrollDirection.FORWARD
                         );
@@ -233,26 +403,28 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
             }
         } else {
             while (scrolled > dy) {
-                View topNormal = getFirstNormalChild();
-                int hangingTop = Math.max(-self.getDecoratedTop(topNormal), 0);
+                int topNormal = getFirstNormalChildIndex();
+                int hangingTop = Math.max(-mChildTops[topNormal], 0);
                 int scrollBy = Math.min(scrolled - dy, hangingTop);
 
                 scrolled -= scrollBy;
-                self.offsetChildrenVertical(scrollBy);
+                offsetChildrenVertical(scrollBy);
 
                 {
-                    View sticky = getCurrentSticky();
-                    int nextPosition = getAdapterPositionByView(topNormal) - 1;
+                    int sticky = getCurrentStickyIndex();
+                    int nextPosition = mChildPositions[topNormal] - 1;
                     boolean isScoped = nextPosition >= 0;
-                    if (isScoped && (sticky != null && nextPosition == getAdapterPositionByView(sticky))) {
-                        int nextBottom = self.getDecoratedTop(topNormal);
+                    if (isScoped && (sticky >= 0 && nextPosition == mChildPositions[sticky])) {
+                        View v = self.getChildAt(sticky);
+                        int nextBottom = mChildTops[topNormal];
                         self.layoutDecorated(
-                                sticky,
+                                v,
                                 parentLeft,
-                                nextBottom - self.getDecoratedMeasuredHeight(sticky),
+                                nextBottom - self.getDecoratedMeasuredHeight(v),
                                 parentRight,
                                 nextBottom
                         );
+                        refreshChildCache(sticky);
                         setCurrentSticky(null);
                     } else if (isScoped && scrolled > dy) {
                         View v = recycler.getViewForPosition(nextPosition);
@@ -261,7 +433,7 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
 
                         self.measureChildWithMargins(v, 0, 0);
 
-                        int nextBottom = self.getDecoratedTop(topNormal);
+                        int nextBottom = mChildTops[topNormal];
                         int nextTop = nextBottom - self.getDecoratedMeasuredHeight(v);
                         self.layoutDecorated(
                                 v,
@@ -270,56 +442,44 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
                                 parentRight,
                                 nextBottom
                         );
+                        insertChildCache(0);
                     } else {
                         break;
                     }
                 }
             }
             {
-                View firstNormal = null, firstSticky = null;
+                int firstNormal, firstSticky = -1;
                 {
-                    int minNormalTop = Integer.MAX_VALUE;
-                    for (int i = 0; i < self.getChildCount(); i++) {
-                        View v = self.getChildAt(i);
-                        if (getCurrentSticky() == null || getCurrentSticky() != v) {
-                            int top = self.getDecoratedTop(v);
-                            if (minNormalTop > top) {
-                                minNormalTop = top;
-                                firstNormal = v;
-                            }
-                        }
-                    }
+                    firstNormal = getFirstNormalChildIndex();
                     int minStickyTop = Integer.MAX_VALUE;
-                    for (int i = 0; i < self.getChildCount(); i++) {
-                        View v = self.getChildAt(i);
-                        if (isStickyViewItemType(v)) {
-                            int top = self.getDecoratedTop(v);
+                    for (int i = 0; i < mChildCacheCount; i++) {
+                        if (mChildSticky[i]) {
+                            int top = mChildTops[i];
                             if (minStickyTop > top) {
                                 minStickyTop = top;
-                                firstSticky = v;
+                                firstSticky = i;
                             }
                         }
                     }
                 }
                 {
-                    int firstPosition = getAdapterPositionByView(firstNormal);
-                    if (mCurrentAdapter.getItemViewType(firstPosition) != mCurrentAdapter.getStickyViewType()) {
-                        IDENTIFIER requiredIdentifier = mCurrentAdapter.getIdentifierByPosition(firstPosition);
+                    if (!mChildSticky[firstNormal]) {
+                        IDENTIFIER requiredIdentifier = mCurrentAdapter.getIdentifierByPosition(mChildPositions[firstNormal]);
 
                         boolean resolved = false;
-                        for (int i = 0; i < self.getChildCount(); i++) {
-                            View v = self.getChildAt(i);
-                            if (isStickyViewItemType(v) && mCurrentAdapter.getIdentifierByPosition(getAdapterPositionByView(v)).equals(requiredIdentifier)) {
+                        for (int i = 0; i < mChildCacheCount; i++) {
+                            if (mChildSticky[i] && mCurrentAdapter.getIdentifierByPosition(mChildPositions[i]).equals(requiredIdentifier)) {
                                 resolved = true;
                                 break;
                             }
                         }
-                        if (!resolved && self.getDecoratedTop(firstSticky) >= 0) {
+                        if (!resolved && mChildTops[firstSticky] >= 0) {
                             int i = mCurrentAdapter.findStickyPositionByIdentifier(requiredIdentifier);
+                            int bottom = mChildTops[firstNormal];
                             View v = recycler.getViewForPosition(i);
                             self.addView(v, 0);
                             self.measureChildWithMargins(v, 0, 0);
-                            int bottom = self.getDecoratedTop(firstNormal);
                             self.layoutDecorated(
                                     v,
                                     parentLeft,
@@ -327,60 +487,63 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
                                     parentRight,
                                     bottom
                             );
+                            insertChildCache(0);
                         }
                     }
                 }
             }
             {
-                View currentSticky = null, previousSticky = null;
+                int currentSticky = -1, previousSticky = -1;
                 {
                     for (int pass = 1; pass <= 2; pass++) {
-                        for (int i = (self.getChildCount() - 1); i >= 0; i--) {
-                            View v = self.getChildAt(i);
-                            if (isStickyViewItemType(v)) {
-                                int top = self.getDecoratedTop(v);
-                                int bottom = self.getDecoratedBottom(v);
+                        for (int i = (mChildCacheCount - 1); i >= 0; i--) {
+                            if (mChildSticky[i]) {
+                                int top = mChildTops[i];
+                                int bottom = mChildBottoms[i];
                                 if (pass == 1) {
-                                    if (top >= 0 && (previousSticky == null || self.getDecoratedTop(previousSticky) > top)) {
-                                        previousSticky = v;
+                                    if (top >= 0 && (previousSticky < 0 || mChildTops[previousSticky] > top)) {
+                                        previousSticky = i;
                                     }
                                 } else if (pass == 2) {
-                                    if ((previousSticky == null && (currentSticky == null || self.getDecoratedBottom(currentSticky) < bottom)) || (previousSticky != null && self.getDecoratedTop(previousSticky) >= bottom && (currentSticky == null || self.getDecoratedBottom(currentSticky) < bottom))) {
-                                        currentSticky = v;
+                                    if ((previousSticky < 0 && (currentSticky < 0 || mChildBottoms[currentSticky] < bottom)) || (previousSticky >= 0 && mChildTops[previousSticky] >= bottom && (currentSticky < 0 || mChildBottoms[currentSticky] < bottom))) {
+                                        currentSticky = i;
                                     }
                                 }
                             }
                         }
                     }
-                    if (currentSticky == null && previousSticky != null) {
+                    if (currentSticky < 0 && previousSticky >= 0) {
                         currentSticky = previousSticky;
-                        previousSticky = null;
+                        previousSticky = -1;
                     }
                 }
                 {
-                    if (currentSticky != null) {
-                        resetCurrentStickyPosition(currentSticky);
-                        setCurrentSticky(currentSticky);
+                    if (currentSticky >= 0) {
+                        resetCurrentStickyPosition(self.getChildAt(currentSticky));
+                        refreshChildCache(currentSticky);
+                        setCurrentSticky(self.getChildAt(currentSticky));
                     }
                     int diff = 0;
-                    if (currentSticky != null && previousSticky != null) {
-                        diff = self.getDecoratedTop(previousSticky) - self.getDecoratedBottom(currentSticky);
+                    if (currentSticky >= 0 && previousSticky >= 0) {
+                        diff = mChildTops[previousSticky] - mChildBottoms[currentSticky];
                     }
                     boolean isLinked = false;
                     if (diff < 0) {
+                        View v = self.getChildAt(currentSticky);
                         int top = 0 + diff;
                         self.layoutDecorated(
-                                currentSticky,
+                                v,
                                 parentLeft,
                                 top,
                                 parentRight,
-                                top + self.getDecoratedMeasuredHeight(currentSticky)
+                                top + self.getDecoratedMeasuredHeight(v)
                         );
+                        refreshChildCache(currentSticky);
                         isLinked = true;
                     }
-                    if (currentSticky != null) {
+                    if (currentSticky >= 0) {
                         notifyStickyChanged(
-                                mCurrentAdapter.getIdentifierByPosition(getAdapterPositionByView(currentSticky)),
+                                mCurrentAdapter.getIdentifierByPosition(mChildPositions[currentSticky]),
                                 isLinked ? IStickyRecyclerAdapterListener.StickyState.LINKED : IStickyRecyclerAdapterListener.StickyState.ALONE,
                                 IStickyRecyclerAdapterListener.ScrollDirection.BACKWARD
                         );
@@ -390,12 +553,11 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
         }
         {
             final List<View> toRecycleViews = new LinkedList<>();
-            for (int i = 0; i < self.getChildCount(); i++) {
-                View v = self.getChildAt(i);
+            for (int i = 0; i < mChildCacheCount; i++) {
                 final int orgTop, orgBottom;
                 {
-                    orgTop = self.getDecoratedTop(v);
-                    orgBottom = self.getDecoratedBottom(v);
+                    orgTop = mChildTops[i];
+                    orgBottom = mChildBottoms[i];
                 }
                 final boolean isHidedTop, isHidedBottom;
                 {
@@ -403,7 +565,7 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
                     isHidedBottom = orgTop > parentHeight;
                 }
                 if (isHidedTop || isHidedBottom) {
-                    toRecycleViews.add(v);
+                    toRecycleViews.add(self.getChildAt(i));
                 }
             }
             for (View v : toRecycleViews) {
@@ -425,11 +587,160 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
     }
 
     public void scrollToPosition(int position) {
-        throw new UnsupportedOperationException();
+        mPendingScrollPosition = position;
+        mPendingSavedState = null;
+        self.requestLayout();
+    }
+
+    public Parcelable onSaveInstanceState() {
+        if (mPendingSavedState != null) {
+            return mPendingSavedState;
+        }
+        int anchorPosition = RecyclerView.NO_POSITION;
+        int anchorOffset = self.getPaddingTop();
+        if (mPendingScrollPosition != RecyclerView.NO_POSITION) {
+            anchorPosition = mPendingScrollPosition;
+        } else if (self.getChildCount() > 0 && mCurrentRecyclerView != null) {
+            refreshChildCache();
+            int anchor = findAnchorChildIndex();
+            if (anchor >= 0) {
+                anchorPosition = self.getPosition(self.getChildAt(anchor));
+                anchorOffset = mChildTops[anchor];
+            }
+        }
+        Object identifier = null;
+        if (anchorPosition >= 0 && anchorPosition < self.getItemCount()) {
+            identifier = mCurrentAdapter.getIdentifierByPosition(anchorPosition);
+            if (!(identifier instanceof Parcelable || identifier instanceof Serializable)) {
+                identifier = null;
+            }
+        }
+        return new StickyVerticalLayoutManager.SavedState(anchorPosition, anchorOffset, identifier);
     }
 
-    public void smoothScrollToPosition(RecyclerView recyclerView, RecyclerView.State state, int position) {
-        throw new UnsupportedOperationException();
+    public void onRestoreInstanceState(Parcelable state) {
+        if (state instanceof StickyVerticalLayoutManager.SavedState) {
+            mPendingSavedState = (StickyVerticalLayoutManager.SavedState) state;
+            self.requestLayout();
+        }
+    }
+
+    public void smoothScrollToPosition(RecyclerView recyclerView, RecyclerView.State state, final int position) {
+        LinearSmoothScroller scroller = new LinearSmoothScroller(recyclerView.getContext()) {
+
+            @Override
+            protected int getVerticalSnapPreference() {
+                return SNAP_TO_START;
+            }
+
+            @Override
+            public int calculateDyToMakeVisible(View view, int snapPreference) {
+                return super.calculateDyToMakeVisible(view, snapPreference) + calcStickyOffset(position);
+            }
+
+        };
+        scroller.setTargetPosition(position);
+        self.startSmoothScroll(scroller);
+    }
+
+    @Nullable
+    public PointF computeScrollVectorForPosition(int targetPosition) {
+        if (self.getChildCount() < 1) {
+            return null;
+        }
+        refreshChildCache();
+        int first = getFirstNormalChildIndex();
+        if (first < 0) {
+            return null;
+        }
+        return new PointF(0, targetPosition < mChildPositions[first] ? -1 : 1);
+    }
+
+    protected int calcStickyOffset(int position) {
+        int stickyPosition = mCurrentAdapter.getPositionForSection(mCurrentAdapter.getSectionForPosition(position));
+        if (stickyPosition == position) {
+            return 0;
+        }
+        View sticky = self.findViewByPosition(stickyPosition);
+        if (sticky == null) {
+            sticky = getCurrentSticky();
+        }
+        return sticky != null ? self.getDecoratedMeasuredHeight(sticky) : 0;
+    }
+
+    public void collectAdjacentPrefetchPositions(int dx, int dy, RecyclerView.State state, RecyclerView.LayoutManager.LayoutPrefetchRegistry layoutPrefetchRegistry) {
+        if (dy == 0 || self.getChildCount() < 1 || mCurrentRecyclerView == null) {
+            return;
+        }
+        refreshChildCache();
+
+        final int itemCount = state.getItemCount();
+        int nextPosition, distance;
+        if (dy > 0) {
+            int last = getLastNormalChildIndex();
+            if (last < 0 || mChildPositions[last] < 0) {
+                return;
+            }
+            nextPosition = mChildPositions[last] + 1;
+            distance = Math.max(0, mChildBottoms[last] - calcParentHeight());
+        } else {
+            int first = getFirstNormalChildIndex();
+            if (first < 0 || mChildPositions[first] < 0) {
+                return;
+            }
+            nextPosition = mChildPositions[first] - 1;
+            distance = Math.max(0, -mChildTops[first]);
+        }
+        if (nextPosition < 0 || nextPosition >= itemCount) {
+            return;
+        }
+        layoutPrefetchRegistry.addPosition(nextPosition, distance);
+
+        // scrolling up, the header of the row's section is pinned above it however far away it is, scrolling down only an adjacent header shows
+        int section = mCurrentAdapter.getSectionForPosition(nextPosition);
+        if (dy > 0) {
+            if (section + 1 < mCurrentAdapter.getSectionCount() && mCurrentAdapter.getPositionForSection(section + 1) == nextPosition + 1) {
+                layoutPrefetchRegistry.addPosition(nextPosition + 1, distance);
+            }
+        } else {
+            int stickyPosition = mCurrentAdapter.getPositionForSection(section);
+            if (stickyPosition != nextPosition && self.findViewByPosition(stickyPosition) == null) {
+                layoutPrefetchRegistry.addPosition(stickyPosition, distance);
+            }
+        }
+    }
+
+    public void collectInitialPrefetchPositions(int adapterItemCount, RecyclerView.LayoutManager.LayoutPrefetchRegistry layoutPrefetchRegistry) {
+        if (adapterItemCount < 1) {
+            return;
+        }
+        int anchorPosition = 0;
+        if (mPendingScrollPosition != RecyclerView.NO_POSITION) {
+            anchorPosition = mPendingScrollPosition;
+        } else if (mPendingSavedState != null && mPendingSavedState.hasValidAnchor()) {
+            anchorPosition = mPendingSavedState.mAnchorPosition;
+        }
+        anchorPosition = Math.max(0, Math.min(anchorPosition, adapterItemCount - 1));
+
+        int count = mInitialPrefetchItemCount;
+        if (mCurrentAdapter != null && count > 0) {
+            int stickyPosition = mCurrentAdapter.getPositionForSection(mCurrentAdapter.getSectionForPosition(anchorPosition));
+            if (stickyPosition != anchorPosition) {
+                layoutPrefetchRegistry.addPosition(stickyPosition, 0);
+                count--;
+            }
+        }
+        for (int i = 0; i < count && anchorPosition + i < adapterItemCount; i++) {
+            layoutPrefetchRegistry.addPosition(anchorPosition + i, 0);
+        }
+    }
+
+    public void setInitialPrefetchItemCount(int itemCount) {
+        mInitialPrefetchItemCount = itemCount;
+    }
+
+    public int getInitialPrefetchItemCount() {
+        return mInitialPrefetchItemCount;
     }
 
     public void onAdapterChanged(RecyclerView.Adapter oldAdapter, RecyclerView.Adapter newAdapter) {
@@ -494,33 +805,47 @@ public class StickyVerticalLayoutManagerHelper<ITEM, IDENTIFIER, ADAPTER extends
         mCurrentRecyclerView = null;
     }
 
+    @Nullable
     protected View getFirstNormalChild() {
-        View resolved = null;
+        refreshChildCache();
+        int index = getFirstNormalChildIndex();
+        return index >= 0 ? self.getChildAt(index) : null;
+    }
+
+    protected int getFirstNormalChildIndex() {
+        int sticky = getCurrentStickyIndex();
+        int resolved = -1;
         int lastMinTop = Integer.MAX_VALUE;
-        for (int i = 0; i < self.getChildCount(); i++) {
-            View v = self.getChildAt(i);
-            if (getCurrentSticky() == null || v != getCurrentSticky()) {
+        for (int i = 0; i < mChildCacheCount; i++) {
+            if (i != sticky) {
                 int top;
-                if ((top = self.getDecoratedTop(v)) < lastMinTop) {
+                if ((top = mChildTops[i]) < lastMinTop) {
                     lastMinTop = top;
-                    resolved = v;
+                    resolved = i;
                 }
             }
         }
         return resolved;
     }
 
+    @Nullable
     protected View getLastNormalChild() {
-        View resolved = null;
+        refreshChildCache();
+        int index = getLastNormalChildIndex();
+        return index >= 0 ? self.getChildAt(index) : null;
+    }
+
+    protected int getLastNormalChildIndex() {
+        int sticky = getCurrentStickyIndex();
+        int stickyPosition = sticky >= 0 ? mChildPositions[sticky] : RecyclerView.NO_POSITION;
+        int resolved = -1;
         int lastMaxBottom = Integer.MIN_VALUE;
-        for (int i = (self.getChildCount() - 1); i >= 0; i--) {
-            View v = self.getChildAt(i);
-            RecyclerView.ViewHolder vh = mCurrentRecyclerView.findContainingViewHolder(v);
-            if (getCurrentSticky() == null || vh.getAdapterPosition() != mCurrentRecyclerView.getChildAdapterPosition(getCurrentSticky())) {
+        for (int i = (mChildCacheCount - 1); i >= 0; i--) {
+            if (sticky < 0 || mChildPositions[i] != stickyPosition) {
                 int bottom;
-                if ((bottom = self.getDecoratedBottom(v)) > lastMaxBottom) {
+                if ((bottom = mChildBottoms[i]) > lastMaxBottom) {
                     lastMaxBottom = bottom;
-                    resolved = v;
+                    resolved = i;
                 }
             }
         }
@@ -0,0 +1,951 @@
+package jp.s64.android.stickyrecycler;
+
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import com.google.common.base.Predicate;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class StickyRecyclerAdapterHelperTest {
+
+    private static final int ITEM_COUNT = 20000;
+    private static final int ITEMS_PER_SECTION = 25;
+    private static final long ALLOCATION_BUDGET_BYTES = 1024;
+    private static final int ALLOCATION_RUNS = 5;
+    private static final int COMPACT_ITEM_COUNT = 1000000;
+    private static final int COMPACT_ITEMS_PER_SECTION = 4;
+    private static final long COMPACT_BUDGET_BYTES_PER_ROW = 16;
+
+    // rows: #a a:1 a:2 #b b:1 b:2 b:3 #c c:1
+    private static final String[] SECTIONS = {"a:1", "a:2", "b:1", "b:2", "b:3", "c:1"};
+
+    private static final Comparator<String> NUMBER_ORDER = new Comparator<String>() {
+
+        @Override
+        public int compare(String a, String b) {
+            return Integer.compare(Integer.parseInt(a.substring(a.indexOf(':') + 1)), Integer.parseInt(b.substring(b.indexOf(':') + 1)));
+        }
+
+    };
+
+    @Test
+    public void positionQueries_doNotAllocate() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = createHelper();
+        int count = helper.getItemCount();
+        String lastIdentifier = helper.getIdentifierByPosition(count - 1);
+
+        // loads the involved classes without giving the JIT a chance to elide allocations
+        queryAll(helper, ITEMS_PER_SECTION * 2, lastIdentifier);
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // a deoptimization of the JIT allocates in one run only, while an allocation per row shows in every run
+        long allocated = Long.MAX_VALUE;
+        for (int run = 0; run < ALLOCATION_RUNS; run++) {
+            long before = bean.getThreadAllocatedBytes(threadId);
+            int checksum = queryAll(helper, count, lastIdentifier);
+            allocated = Math.min(allocated, bean.getThreadAllocatedBytes(threadId) - before);
+            assertTrue(checksum > 0);
+        }
+
+        assertTrue("allocated " + allocated + " bytes while querying " + count + " rows", allocated < ALLOCATION_BUDGET_BYTES);
+    }
+
+    @Test
+    public void positionQueries_matchSections() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = createHelper();
+        int sectionCount = ITEM_COUNT / ITEMS_PER_SECTION;
+
+        assertEquals(ITEM_COUNT + sectionCount, helper.getItemCount());
+        assertEquals(sectionCount, helper.getSectionCount());
+        for (int section = 0; section < sectionCount; section++) {
+            int header = section * (ITEMS_PER_SECTION + 1);
+            assertEquals(header, helper.getPositionForSection(section));
+            assertEquals(ITEMS_PER_SECTION, helper.getItemCountInSection(section));
+            assertEquals(section, helper.getSectionForPosition(header));
+            assertEquals(section, helper.getSectionForPosition(header + ITEMS_PER_SECTION));
+            assertTrue(helper.isStickyPosition(header));
+            assertEquals(helper.getStickyViewType(), helper.getItemViewType(header));
+            assertNull(helper.getItemByPosition(header));
+            assertEquals(header, helper.findStickyPositionByIdentifier(identifierOf(section)));
+            for (int i = 1; i <= ITEMS_PER_SECTION; i++) {
+                assertFalse(helper.isStickyPosition(header + i));
+                assertEquals(itemOf(section * ITEMS_PER_SECTION + i - 1), helper.getItemByPosition(header + i));
+                assertEquals(identifierOf(section), helper.getIdentifierByPosition(header + i));
+            }
+        }
+    }
+
+    @Test
+    public void compactStorage_retainsAboutOneReferencePerRow() throws Exception {
+        // the rows and identifiers are owned by the test, so only the index of the helper is measured
+        Row[] rows = new Row[COMPACT_ITEM_COUNT];
+        for (int i = 0; i < COMPACT_ITEM_COUNT; i++) {
+            rows[i] = new Row(i % COMPACT_ITEMS_PER_SECTION == 0 ? identifierOf(i / COMPACT_ITEMS_PER_SECTION) : rows[i - 1].identifier);
+        }
+        List<Row> items = Arrays.asList(rows);
+
+        long before = usedHeap();
+        StickyRecyclerAdapterHelper<Row, String, RecyclerView.ViewHolder> helper = new StickyRecyclerAdapterHelper<>(new RowCreator());
+        helper.addAll(items);
+        helper.trimToSize();
+        long retained = usedHeap() - before;
+
+        assertEquals(COMPACT_ITEM_COUNT + COMPACT_ITEM_COUNT / COMPACT_ITEMS_PER_SECTION, helper.getItemCount());
+        assertTrue("retained " + retained + " bytes for " + COMPACT_ITEM_COUNT + " rows", retained < COMPACT_BUDGET_BYTES_PER_ROW * COMPACT_ITEM_COUNT);
+    }
+
+    @Test
+    public void insertItems_atFirstHeader() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(SECTIONS);
+        ReplayCallback replay = replayOf(helper);
+        helper.addAll(0, Arrays.asList("z:1", "a:0"));
+        replay.assertReplays(helper, "z:1", "a:0", "a:1", "a:2", "b:1", "b:2", "b:3", "c:1");
+    }
+
+    @Test
+    public void insertItems_atHeader() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(SECTIONS);
+        ReplayCallback replay = replayOf(helper);
+        helper.addAll(3, Arrays.asList("a:9", "x:1", "b:0"));
+        replay.assertReplays(helper, "a:1", "a:2", "a:9", "x:1", "b:0", "b:1", "b:2", "b:3", "c:1");
+    }
+
+    @Test
+    public void insertItems_atSectionStart() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(SECTIONS);
+        ReplayCallback replay = replayOf(helper);
+        helper.addAll(4, Arrays.asList("c:0", "b:0"));
+        replay.assertReplays(helper, "a:1", "a:2", "c:0", "b:0", "b:1", "b:2", "b:3", "c:1");
+    }
+
+    @Test
+    public void insertItems_inMiddleOfSection() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(SECTIONS);
+        ReplayCallback replay = replayOf(helper);
+        helper.addAll(5, Collections.singletonList("b:9"));
+        replay.assertReplays(helper, "a:1", "a:2", "b:1", "b:9", "b:2", "b:3", "c:1");
+
+        replay = replayOf(helper);
+        helper.addAll(6, Arrays.asList("b:8", "x:1", "b:7"));
+        replay.assertReplays(helper, "a:1", "a:2", "b:1", "b:9", "b:8", "x:1", "b:7", "b:2", "b:3", "c:1");
+    }
+
+    @Test
+    public void insertItems_atEnd() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(SECTIONS);
+        ReplayCallback replay = replayOf(helper);
+        helper.addAll(helper.getItemCount(), Arrays.asList("c:2", "d:1"));
+        replay.assertReplays(helper, "a:1", "a:2", "b:1", "b:2", "b:3", "c:1", "c:2", "d:1");
+    }
+
+    @Test
+    public void removeRange_mergesEqualNeighbours() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf("a:1", "a:2", "b:1", "a:3", "c:1");
+        ReplayCallback replay = replayOf(helper);
+        helper.removeRange(3, 5);
+        replay.assertReplays(helper, "a:1", "a:2", "a:3", "c:1");
+
+        helper = helperOf("a:1", "b:1", "c:1", "a:2", "a:3");
+        replay = replayOf(helper);
+        helper.removeRange(3, 7);
+        replay.assertReplays(helper, "a:1", "a:2", "a:3");
+    }
+
+    @Test
+    public void removeRange_keepsMiddleHeader() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(SECTIONS);
+        ReplayCallback replay = replayOf(helper);
+        helper.removeRange(3, 5);
+        replay.assertReplays(helper, "a:1", "a:2", "b:2", "b:3", "c:1");
+
+        helper = helperOf(SECTIONS);
+        replay = replayOf(helper);
+        helper.removeRange(1, 6);
+        replay.assertReplays(helper, "b:3", "c:1");
+    }
+
+    @Test
+    public void removeRange_splitsAroundSurvivingHeader() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(SECTIONS);
+        ReplayCallback replay = replayOf(helper);
+        helper.removeRange(2, 6);
+        replay.assertReplays(helper, "a:1", "b:3", "c:1");
+
+        helper = helperOf(SECTIONS);
+        replay = replayOf(helper);
+        helper.removeRange(2, 8);
+        replay.assertReplays(helper, "a:1", "c:1");
+    }
+
+    @Test
+    public void removeSection_removesEveryRun() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf("a:1", "b:1", "a:2", "b:2", "a:3");
+        ReplayCallback replay = replayOf(helper);
+        helper.removeSection("b");
+        replay.assertReplays(helper, "a:1", "a:2", "a:3");
+        assertEquals(1, helper.getSectionCount());
+    }
+
+    @Test
+    public void stickyIds_countRepeatedSections() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = new StickyRecyclerAdapterHelper<>(new SectionIdCreator());
+        helper.add("a:1", "b:1", "a:2", "b:2", "a:3");
+        long first = helper.getItemId(0);
+        assertEquals(StickyRecyclerAdapterHelper.STICKY_ITEM_ID_FLAG | 'a', first);
+        assertEquals(StickyRecyclerAdapterHelper.STICKY_ITEM_ID_FLAG | (1L << StickyRecyclerAdapterHelper.STICKY_ID_BITS) | 'a', helper.getItemId(4));
+        assertEquals(StickyRecyclerAdapterHelper.STICKY_ITEM_ID_FLAG | (2L << StickyRecyclerAdapterHelper.STICKY_ID_BITS) | 'a', helper.getItemId(8));
+        assertEquals(StickyRecyclerAdapterHelper.STICKY_ITEM_ID_FLAG | (1L << StickyRecyclerAdapterHelper.STICKY_ID_BITS) | 'b', helper.getItemId(6));
+
+        helper.remove("b:1");
+        assertEquals(first, helper.getItemId(0));
+        assertEquals(StickyRecyclerAdapterHelper.STICKY_ITEM_ID_FLAG | 'b', helper.getItemId(3));
+        assertEquals(StickyRecyclerAdapterHelper.STICKY_ITEM_ID_FLAG | (1L << StickyRecyclerAdapterHelper.STICKY_ID_BITS) | 'a', helper.getItemId(5));
+    }
+
+    @Test
+    public void stickyIds_rejectIdsAboveStickyIdBits() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = new StickyRecyclerAdapterHelper<>(new SectionIdCreator());
+        helper.add("a:1", "~:1");
+        try {
+            helper.getItemId(2);
+            fail("accepted a sticky id of " + (StickyRecyclerAdapterHelper.STICKY_ID_BITS + 1) + " bits");
+        } catch (IllegalArgumentException expected) {
+            // the occurrence bits would be overwritten
+        }
+    }
+
+    @Test
+    public void update_inPlace() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(SECTIONS);
+        ReplayCallback replay = replayOf(helper);
+        helper.update("b:2", "b:9");
+        replay.assertReplays(helper, "a:1", "a:2", "b:1", "b:9", "b:3", "c:1");
+    }
+
+    @Test
+    public void update_changesSection() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(SECTIONS);
+        ReplayCallback replay = replayOf(helper);
+        helper.update("b:2", "x:1");
+        replay.assertReplays(helper, "a:1", "a:2", "b:1", "x:1", "b:3", "c:1");
+
+        replay = replayOf(helper);
+        helper.update("b:3", "c:0");
+        replay.assertReplays(helper, "a:1", "a:2", "b:1", "x:1", "c:1", "c:0");
+
+        replay = replayOf(helper);
+        helper.update("x:1", "b:2");
+        replay.assertReplays(helper, "a:1", "a:2", "b:1", "b:2", "c:1", "c:0");
+    }
+
+    @Test
+    public void update_joinsExistingSection() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(SECTIONS);
+        ReplayCallback replay = replayOf(helper);
+        helper.update("b:2", "a:3");
+        replay.assertReplays(helper, "a:1", "a:2", "a:3", "b:1", "b:3", "c:1");
+        assertEquals(3, helper.getSectionCount());
+
+        replay = replayOf(helper);
+        helper.update("a:1", "c:2");
+        replay.assertReplays(helper, "a:2", "a:3", "b:1", "b:3", "c:1", "c:2");
+
+        replay = replayOf(helper);
+        helper.update("b:1", "c:3");
+        helper.update("b:3", "a:4");
+        replay.assertReplays(helper, "a:2", "a:3", "a:4", "c:1", "c:2", "c:3");
+        assertEquals(2, helper.getSectionCount());
+    }
+
+    @Test
+    public void move_withinAndAcrossSections() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(SECTIONS);
+        ReplayCallback replay = replayOf(helper);
+        helper.move(4, 7);
+        replay.assertReplays(helper, "a:1", "a:2", "b:2", "b:3", "b:1", "c:1");
+
+        replay = replayOf(helper);
+        helper.move(1, 8);
+        replay.assertReplays(helper, "a:2", "b:2", "b:3", "b:1", "a:1", "c:1");
+
+        replay = replayOf(helper);
+        helper.move(5, 0);
+        replay.assertReplays(helper, "b:1", "a:2", "b:2", "b:3", "a:1", "c:1");
+
+        replay = replayOf(helper);
+        helper.move(1, helper.getItemCount());
+        replay.assertReplays(helper, "a:2", "b:2", "b:3", "a:1", "c:1", "b:1");
+    }
+
+    @Test
+    public void move_emptiedSectionMergesNeighbours() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf("a:1", "b:1", "a:2");
+        ReplayCallback replay = replayOf(helper);
+        helper.move(3, 0);
+        replay.assertReplays(helper, "b:1", "a:1", "a:2");
+        assertEquals(2, helper.getSectionCount());
+    }
+
+    @Test
+    public void updateAndMove_replayRandomSequence() throws Exception {
+        Random random = new Random(17);
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            items.add((char) ('a' + random.nextInt(4)) + ":" + i);
+        }
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(items.toArray(new String[items.size()]));
+        for (int i = 0; i < 500; i++) {
+            ReplayCallback replay = replayOf(helper);
+            if (random.nextBoolean()) {
+                int index = random.nextInt(items.size());
+                String item = (char) ('a' + random.nextInt(4)) + ":" + (100 + i);
+                helper.update(items.get(index), item);
+                int targetIndex = sectionEndOf(items, index, item);
+                if (targetIndex < 0) {
+                    items.set(index, item);
+                } else {
+                    items.remove(index);
+                    items.add(targetIndex > index ? targetIndex - 1 : targetIndex, item);
+                }
+            } else {
+                int fromPosition;
+                do {
+                    fromPosition = random.nextInt(helper.getItemCount());
+                } while (helper.isStickyPosition(fromPosition));
+                int toPosition = random.nextInt(helper.getItemCount() + 1);
+                int index = rawIndexOf(items, fromPosition);
+                int targetIndex = rawIndexOf(items, toPosition);
+                helper.move(fromPosition, toPosition);
+                items.add(targetIndex > index ? targetIndex - 1 : targetIndex, items.remove(index));
+            }
+            replay.assertReplays(helper, items.toArray(new String[items.size()]));
+        }
+    }
+
+    @Test
+    public void submitList_firstLoad_buildsIndexOnDiffExecutor() throws Exception {
+        QueueExecutor diff = new QueueExecutor();
+        QueueExecutor mainThread = new QueueExecutor();
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf();
+        helper.setDiffExecutor(diff);
+        helper.setMainThreadExecutor(mainThread);
+        ReplayCallback replay = replayOf(helper);
+        helper.submitList(Arrays.asList(SECTIONS));
+        assertEquals(0, helper.getItemCount());
+
+        diff.runAll();
+        assertEquals(0, helper.getItemCount());
+        mainThread.runAll();
+        replay.assertReplays(helper, SECTIONS);
+    }
+
+    @Test
+    public void submitList_mutationBeforeDiffLands_appliesOnTopOfList() throws Exception {
+        QueueExecutor mainThread = new QueueExecutor();
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = asyncHelperOf(mainThread, "a:1", "b:2");
+        ReplayCallback replay = replayOf(helper);
+        helper.submitList(Arrays.asList("a:1", "b:2", "c:3", "d:4"));
+        helper.add("e:5");
+        helper.remove("c:3");
+        mainThread.runAll();
+        replay.assertReplays(helper, "a:1", "b:2", "d:4", "e:5");
+    }
+
+    @Test
+    public void sorted_insertsBeforeLastAndAppendsTail() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = sortedHelperOf("a:1", "b:3", "a:5");
+        ReplayCallback replay = replayOf(helper);
+        helper.addAll(Arrays.asList("c:9", "b:4", "a:2", "c:7"));
+        replay.assertReplays(helper, "a:1", "a:2", "b:3", "b:4", "a:5", "c:7", "c:9");
+
+        replay = replayOf(helper);
+        helper.addAll(Arrays.asList("x:0", "c:12"));
+        replay.assertReplays(helper, "x:0", "a:1", "a:2", "b:3", "b:4", "a:5", "c:7", "c:9", "c:12");
+    }
+
+    @Test
+    public void sorted_equalKeysKeepAddOrder() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = sortedHelperOf("a:2", "c:4");
+        ReplayCallback replay = replayOf(helper);
+        helper.add("b:2");
+        helper.add("a:2");
+        replay.assertReplays(helper, "a:2", "b:2", "a:2", "c:4");
+    }
+
+    @Test
+    public void sorted_updateMovesOutOfOrderItem() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = sortedHelperOf("a:1", "a:2", "b:3", "b:4");
+        ReplayCallback replay = replayOf(helper);
+        helper.update("a:1", "a:3");
+        replay.assertReplays(helper, "a:2", "b:3", "a:3", "b:4");
+
+        replay = replayOf(helper);
+        helper.update("b:4", "b:0");
+        replay.assertReplays(helper, "b:0", "a:2", "b:3", "a:3");
+    }
+
+    @Test
+    public void setComparator_sortsUnsortedItems() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf("a:3", "b:1", "a:2", "b:4");
+        ReplayCallback replay = replayOf(helper);
+        helper.setComparator(NUMBER_ORDER);
+        replay.assertReplays(helper, "b:1", "a:2", "a:3", "b:4");
+    }
+
+    @Test
+    public void setComparator_inGroupingMode_sortsInsideSections() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf("a:3", "b:1", "a:2", "b:0");
+        helper.setGroupingEnabled(true);
+        ReplayCallback replay = replayOf(helper);
+        helper.setComparator(NUMBER_ORDER);
+        replay.assertReplays(helper, "a:2", "a:3", "b:0", "b:1");
+
+        replay = replayOf(helper);
+        helper.addAll(Arrays.asList("b:9", "a:1", "c:5", "b:-1"));
+        replay.assertReplays(helper, "a:1", "a:2", "a:3", "b:-1", "b:0", "b:1", "b:9", "c:5");
+    }
+
+    @Test
+    public void sorted_replayRandomSequence() throws Exception {
+        Random random = new Random(23);
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = sortedHelperOf();
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            ReplayCallback replay = replayOf(helper);
+            int kind = random.nextInt(4);
+            if (kind < 2 || items.isEmpty()) {
+                List<String> added = new ArrayList<>();
+                for (int j = random.nextInt(5); j >= 0; j--) {
+                    added.add((char) ('a' + random.nextInt(3)) + ":" + random.nextInt(50));
+                }
+                helper.addAll(added);
+                List<String> ordered = new ArrayList<>(added);
+                Collections.sort(ordered, NUMBER_ORDER);
+                for (String item : ordered) {
+                    items.add(upperBoundOf(items, item), item);
+                }
+            } else if (kind == 2) {
+                String item = items.get(random.nextInt(items.size()));
+                helper.remove(item);
+                items.remove(item);
+            } else {
+                // equal items are updated at their first index
+                int index = items.indexOf(items.get(random.nextInt(items.size())));
+                String item = (char) ('a' + random.nextInt(3)) + ":" + random.nextInt(50);
+                helper.update(items.get(index), item);
+                boolean inOrder = (index == 0 || NUMBER_ORDER.compare(items.get(index - 1), item) <= 0)
+                        && (index + 1 == items.size() || NUMBER_ORDER.compare(item, items.get(index + 1)) <= 0);
+                if (identifierOfItem(item).equals(identifierOfItem(items.get(index))) && inOrder) {
+                    items.set(index, item);
+                } else {
+                    items.remove(index);
+                    items.add(upperBoundOf(items, item), item);
+                }
+            }
+            replay.assertReplays(helper, items.toArray(new String[items.size()]));
+        }
+    }
+
+    @Test
+    public void grouping_collapsesScatteredIdentifiers() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf();
+        helper.setGroupingEnabled(true);
+        ReplayCallback replay = replayOf(helper);
+        helper.add("a:1", "b:1", "a:2", "c:1", "b:2", "a:3");
+        replay.assertReplays(helper, "a:1", "a:2", "a:3", "b:1", "b:2", "c:1");
+        assertEquals(3, helper.getSectionCount());
+
+        // existing sections grow in place, new identifiers are appended in encounter order
+        replay = replayOf(helper);
+        helper.addAll(Arrays.asList("c:2", "a:4", "d:1", "b:3", "e:1", "d:2"));
+        replay.assertReplays(helper, "a:1", "a:2", "a:3", "a:4", "b:1", "b:2", "b:3", "c:1", "c:2", "d:1", "d:2", "e:1");
+        assertEquals(5, helper.getSectionCount());
+    }
+
+    @Test
+    public void setGroupingEnabled_regroupsPlainItems() throws Exception {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf("a:1", "b:1", "a:2", "c:1", "b:2");
+        ReplayCallback replay = replayOf(helper);
+        helper.setGroupingEnabled(true);
+        replay.assertReplays(helper, "a:1", "a:2", "b:1", "b:2", "c:1");
+        assertEquals(3, helper.getSectionCount());
+        assertEquals(3, helper.findStickyPositionByIdentifier("b"));
+    }
+
+    @Test
+    public void grouping_replayRandomSequence() throws Exception {
+        Random random = new Random(29);
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf();
+        helper.setGroupingEnabled(true);
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < 400; i++) {
+            ReplayCallback replay = replayOf(helper);
+            List<String> items = flatten(groups);
+            int kind = random.nextInt(4);
+            if (kind < 2 || items.isEmpty()) {
+                List<String> added = new ArrayList<>();
+                for (int j = random.nextInt(6); j >= 0; j--) {
+                    added.add((char) ('a' + random.nextInt(6)) + ":" + i + "_" + j);
+                }
+                helper.addAll(added);
+                for (String item : added) {
+                    putGrouped(groups, item);
+                }
+            } else if (kind == 2) {
+                String item = items.get(random.nextInt(items.size()));
+                helper.remove(item);
+                removeGrouped(groups, item);
+            } else {
+                String oldItem = items.get(random.nextInt(items.size()));
+                String newItem = (char) ('a' + random.nextInt(6)) + ":" + i;
+                helper.update(oldItem, newItem);
+                if (identifierOfItem(oldItem).equals(identifierOfItem(newItem))) {
+                    List<String> group = groups.get(identifierOfItem(oldItem));
+                    group.set(group.indexOf(oldItem), newItem);
+                } else {
+                    removeGrouped(groups, oldItem);
+                    putGrouped(groups, newItem);
+                }
+            }
+            items = flatten(groups);
+            replay.assertReplays(helper, items.toArray(new String[items.size()]));
+            assertEquals(groups.size(), helper.getSectionCount());
+        }
+    }
+
+    @Test
+    public void longGrouping_collapsesManyScatteredKeys() throws Exception {
+        // more keys than the initial capacity of the primitive group table
+        int keyCount = 40;
+        List<String> items = new ArrayList<>();
+        List<String> grouped = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            for (int key = 0; key < keyCount; key++) {
+                items.add((key * 7919L + 1) + ":" + round);
+            }
+        }
+        for (int key = 0; key < keyCount; key++) {
+            for (int round = 0; round < 3; round++) {
+                grouped.add((key * 7919L + 1) + ":" + round);
+            }
+        }
+        LongStickyRecyclerAdapterHelper<String, RecyclerView.ViewHolder> helper = new LongStickyRecyclerAdapterHelper<>(new LongSectionCreator());
+        helper.setGroupingEnabled(true);
+        ReplayCallback replay = replayOf(helper);
+        helper.addAll(items.subList(0, keyCount));
+        helper.addAll(items.subList(keyCount, items.size()));
+        replay.assertReplays(helper, grouped.toArray(new String[grouped.size()]));
+        assertEquals(keyCount, helper.getSectionCount());
+        for (int key = 0; key < keyCount; key++) {
+            assertEquals(key * 4, helper.findStickyPositionByIdentifier(key * 7919L + 1));
+        }
+    }
+
+    @Test
+    public void setFilter_mutationBeforeClearedFilterLands_keepsFilteredOutItems() throws Exception {
+        QueueExecutor mainThread = new QueueExecutor();
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = asyncHelperOf(mainThread, "a:1", "a:2", "b:3", "b:4");
+        ReplayCallback replay = replayOf(helper);
+        helper.setFilter(identifierIs("a"));
+        mainThread.runAll();
+        replay.assertReplays(helper, "a:1", "a:2");
+
+        replay = replayOf(helper);
+        helper.setFilter(null);
+        helper.add("c:5");
+        mainThread.runAll();
+        replay.assertReplays(helper, "a:1", "a:2", "b:3", "b:4", "c:5");
+    }
+
+    @Test
+    public void removeRange_filtered_keepsEqualItemsOutsideRange() throws Exception {
+        QueueExecutor mainThread = new QueueExecutor();
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = asyncHelperOf(mainThread, "a:1", "b:1", "a:1", "a:2");
+        helper.setFilter(identifierIs("a"));
+        mainThread.runAll();
+
+        ReplayCallback replay = replayOf(helper);
+        helper.removeRange(2, 3);
+        mainThread.runAll();
+        replay.assertReplays(helper, "a:1", "a:2");
+
+        helper.setFilter(null);
+        mainThread.runAll();
+        assertEquals(expectedRowsOf("a:1", "b:1", "a:2"), rowsOf(helper));
+    }
+
+    private static void putGrouped(Map<String, List<String>> groups, String item) {
+        List<String> group = groups.get(identifierOfItem(item));
+        if (group == null) {
+            group = new ArrayList<>();
+            groups.put(identifierOfItem(item), group);
+        }
+        group.add(item);
+    }
+
+    private static void removeGrouped(Map<String, List<String>> groups, String item) {
+        List<String> group = groups.get(identifierOfItem(item));
+        group.remove(item);
+        if (group.isEmpty()) {
+            groups.remove(identifierOfItem(item));
+        }
+    }
+
+    private static List<String> flatten(Map<String, List<String>> groups) {
+        List<String> items = new ArrayList<>();
+        for (List<String> group : groups.values()) {
+            items.addAll(group);
+        }
+        return items;
+    }
+
+    private static int upperBoundOf(List<String> items, String item) {
+        int index = 0;
+        while (index < items.size() && NUMBER_ORDER.compare(items.get(index), item) <= 0) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the end of the first run the updated item joins, or -1 when it keeps its index.
+     */
+    private static int sectionEndOf(List<String> items, int index, String item) {
+        String identifier = identifierOfItem(item);
+        if (identifier.equals(identifierOfItem(items.get(index)))) {
+            return -1;
+        }
+        for (int i = 0; i < items.size(); i++) {
+            if (identifierOfItem(items.get(i)).equals(identifier)) {
+                while (i < items.size() && identifierOfItem(items.get(i)).equals(identifier)) {
+                    i++;
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String identifierOfItem(String item) {
+        return item.substring(0, item.indexOf(':'));
+    }
+
+    @Test
+    public void pagedSource_shortOrFailedPage_isRequestedAgain() throws Exception {
+        QueueExecutor mainThread = new QueueExecutor();
+        final List<IStickyPageLoader.Callback<String>> requests = new ArrayList<>();
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf();
+        helper.setMainThreadExecutor(mainThread);
+        helper.setPagedSource(Arrays.asList("a", "b"), new int[]{2, 2}, 2, new IStickyPageLoader<String>() {
+
+            @Override
+            public void loadPage(int startIndex, int count, IStickyPageLoader.Callback<String> callback) {
+                requests.add(callback);
+            }
+
+        });
+
+        // rows: #a a:1 a:2 #b b:1 b:2, binding a:1 requests the first page only
+        helper.onBindViewHolder(null, 1);
+        assertEquals(1, requests.size());
+        requests.get(0).onPageLoaded(Collections.singletonList("a:1"));
+        mainThread.runAll();
+        assertTrue(helper.isPlaceholderPosition(1));
+
+        helper.onBindViewHolder(null, 1);
+        assertEquals(2, requests.size());
+        requests.get(1).onPageFailed();
+        mainThread.runAll();
+
+        helper.onBindViewHolder(null, 1);
+        assertEquals(3, requests.size());
+        requests.get(2).onPageLoaded(Arrays.asList("a:1", "a:2"));
+        mainThread.runAll();
+        assertEquals("a:1", helper.getItemByPosition(1));
+        assertEquals("a:2", helper.getItemByPosition(2));
+        assertTrue(helper.isPlaceholderPosition(4));
+    }
+
+    private static int rawIndexOf(List<String> items, int position) {
+        List<String> rows = expectedRowsOf(items.toArray(new String[items.size()]));
+        int index = 0;
+        for (int i = 0; i < position; i++) {
+            if (!rows.get(i).startsWith("#")) {
+                index++;
+            }
+        }
+        return index;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int queryAll(StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper, int count, String identifier) {
+        int checksum = 0;
+        for (int i = 0; i < count; i++) {
+            if (helper.isStickyPosition(i) && helper.getItemViewType(i) == helper.getStickyViewType()) {
+                checksum += helper.getIdentifierByPosition(i).length();
+            } else {
+                checksum += helper.getItemByPosition(i).length();
+            }
+            checksum += helper.findStickyPositionByIdentifier(identifier) > 0 ? 1 : 0;
+        }
+        return checksum;
+    }
+
+    private static StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> createHelper() {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = new StickyRecyclerAdapterHelper<>(new SectionCreator());
+        String[] items = new String[ITEM_COUNT];
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items[i] = itemOf(i);
+        }
+        helper.add(items);
+        return helper;
+    }
+
+    private static StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helperOf(String... items) {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = new StickyRecyclerAdapterHelper<>(new SectionCreator());
+        helper.add(items);
+        return helper;
+    }
+
+    private static StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> sortedHelperOf(String... items) {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = new StickyRecyclerAdapterHelper<>(new SectionCreator());
+        helper.setComparator(NUMBER_ORDER);
+        helper.add(items);
+        return helper;
+    }
+
+    private static StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> asyncHelperOf(Executor mainThread, String... items) {
+        StickyRecyclerAdapterHelper<String, String, RecyclerView.ViewHolder> helper = helperOf(items);
+        helper.setDiffExecutor(new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+
+        });
+        helper.setMainThreadExecutor(mainThread);
+        return helper;
+    }
+
+    private static Predicate<String> identifierIs(final String identifier) {
+        return new Predicate<String>() {
+
+            @Override
+            public boolean apply(String item) {
+                return item.startsWith(identifier + ":");
+            }
+
+        };
+    }
+
+    private static ReplayCallback replayOf(StickyRecyclerAdapterHelper<String, ?, RecyclerView.ViewHolder> helper) {
+        ReplayCallback replay = new ReplayCallback(rowsOf(helper));
+        helper.setListUpdateCallback(replay);
+        return replay;
+    }
+
+    private static List<String> rowsOf(StickyRecyclerAdapterHelper<String, ?, RecyclerView.ViewHolder> helper) {
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < helper.getItemCount(); i++) {
+            rows.add(helper.isStickyPosition(i) ? "#" + helper.getIdentifierByPosition(i) : helper.getItemByPosition(i));
+        }
+        return rows;
+    }
+
+    private static List<String> expectedRowsOf(String... items) {
+        List<String> rows = new ArrayList<>();
+        String identifier = null;
+        for (String item : items) {
+            String next = item.substring(0, item.indexOf(':'));
+            if (!next.equals(identifier)) {
+                rows.add("#" + next);
+                identifier = next;
+            }
+            rows.add(item);
+        }
+        return rows;
+    }
+
+    private static String itemOf(int index) {
+        return (index / ITEMS_PER_SECTION) + ":" + index;
+    }
+
+    private static String identifierOf(int section) {
+        return String.valueOf(section);
+    }
+
+    /**
+     * Replays the notified events onto the rows before a mutation, inserted and changed rows are only known after it.
+     */
+    private static class ReplayCallback implements ListUpdateCallback {
+
+        private final List<String> rows;
+
+        public ReplayCallback(List<String> rows) {
+            this.rows = new ArrayList<>(rows);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            rows.addAll(position, Collections.<String>nCopies(count, null));
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            rows.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            rows.add(toPosition, rows.remove(fromPosition));
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            for (int i = position; i < position + count; i++) {
+                rows.set(i, null);
+            }
+        }
+
+        public void assertReplays(StickyRecyclerAdapterHelper<String, ?, RecyclerView.ViewHolder> helper, String... items) {
+            List<String> expected = expectedRowsOf(items);
+            assertEquals(expected, rowsOf(helper));
+            assertEquals("replayed " + rows, expected.size(), rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                if (rows.get(i) != null) {
+                    assertEquals("replayed " + rows, expected.get(i), rows.get(i));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Holds the posted results, so a test decides when they land.
+     */
+    private static class QueueExecutor implements Executor {
+
+        private final List<Runnable> commands = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            commands.add(command);
+        }
+
+        public void runAll() {
+            while (!commands.isEmpty()) {
+                commands.remove(0).run();
+            }
+        }
+
+    }
+
+    private static class Row {
+
+        public final String identifier;
+
+        public Row(String identifier) {
+            this.identifier = identifier;
+        }
+
+    }
+
+    private static class RowCreator implements IStickyCreator<Row, String, RecyclerView.ViewHolder> {
+
+        @Override
+        public RecyclerView.ViewHolder createStickyViewHolder(ViewGroup parent) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getIdentifier(Row item) {
+            return item.identifier;
+        }
+
+        @Override
+        public void bindStickyViewHolder(RecyclerView.ViewHolder viewHolder, String identifier) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    private static class LongSectionCreator implements ILongStickyCreator<String, RecyclerView.ViewHolder> {
+
+        @Override
+        public RecyclerView.ViewHolder createStickyViewHolder(ViewGroup parent) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getIdentifier(String item) {
+            return Long.parseLong(item.substring(0, item.indexOf(':')));
+        }
+
+        @Override
+        public void bindStickyViewHolder(RecyclerView.ViewHolder viewHolder, long identifier) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    private static class SectionIdCreator extends SectionCreator implements IStickyIdCreator<String, String> {
+
+        @Override
+        public long getItemId(String item) {
+            return item.hashCode() & 0xffffffffL;
+        }
+
+        @Override
+        public long getStickyId(String identifier) {
+            // "~" stands for an identifier whose id is too large
+            return identifier.equals("~") ? 1L << StickyRecyclerAdapterHelper.STICKY_ID_BITS : identifier.charAt(0);
+        }
+
+    }
+
+    private static class SectionCreator implements IStickyCreator<String, String, RecyclerView.ViewHolder> {
+
+        @Override
+        public RecyclerView.ViewHolder createStickyViewHolder(ViewGroup parent) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getIdentifier(String item) {
+            return item.substring(0, item.indexOf(':'));
+        }
+
+        @Override
+        public void bindStickyViewHolder(RecyclerView.ViewHolder viewHolder, String identifier) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
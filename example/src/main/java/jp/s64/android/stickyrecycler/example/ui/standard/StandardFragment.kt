@@ -27,6 +27,8 @@ import android.support.v7.widget.RecyclerView
 import android.view.*
 import dagger.android.support.AndroidSupportInjection
 import jp.s64.android.stickyrecycler.IStickyCreator
+import jp.s64.android.stickyrecycler.IStickyIdCreator
+import jp.s64.android.stickyrecycler.IStickyItemCallback
 import jp.s64.android.stickyrecycler.StickyRecyclerAdapter
 import jp.s64.android.stickyrecycler.StickyVerticalLayoutManager
 import jp.s64.android.stickyrecycler.example.R
@@ -62,9 +64,7 @@ class StandardFragment : Fragment() {
         binding.recycler.layoutManager = StickyVerticalLayoutManager<Schedule, LocalDate, StandardAdapter, AbsStandardViewHolder>(true)
         binding.recycler.adapter = this.adapter
         viewModel.schedules.observe(this, Observer {
-            adapter.clear()
-            adapter.add(*it!!.toTypedArray())
-            adapter.notifyDataSetChanged()
+            adapter.submitList(it)
         })
         viewModel.loadSchedules()
     }
@@ -125,7 +125,7 @@ class StandardAdapter : StickyRecyclerAdapter<Schedule, LocalDate, AbsStandardVi
 
 }
 
-class StandardStickyCreator : IStickyCreator<Schedule, LocalDate, AbsStandardViewHolder> {
+class StandardStickyCreator : IStickyCreator<Schedule, LocalDate, AbsStandardViewHolder>, IStickyItemCallback<Schedule>, IStickyIdCreator<Schedule, LocalDate> {
 
     override fun getIdentifier(item: Schedule): LocalDate {
         return item.dateTime.toLocalDate()
@@ -142,6 +142,22 @@ class StandardStickyCreator : IStickyCreator<Schedule, LocalDate, AbsStandardVie
         vh.binding.date.setText(identifier.toString("MM/dd"))
     }
 
+    override fun getItemId(item: Schedule): Long {
+        return item.id.toLong()
+    }
+
+    override fun getStickyId(identifier: LocalDate): Long {
+        return identifier.year * 10000L + identifier.monthOfYear * 100L + identifier.dayOfMonth
+    }
+
+    override fun areItemsTheSame(oldItem: Schedule, newItem: Schedule): Boolean {
+        return oldItem.id == newItem.id
+    }
+
+    override fun areContentsTheSame(oldItem: Schedule, newItem: Schedule): Boolean {
+        return oldItem == newItem
+    }
+
 }
 
 abstract class AbsStandardViewHolder(itemView: View) : RecyclerView.ViewHolder(itemView)
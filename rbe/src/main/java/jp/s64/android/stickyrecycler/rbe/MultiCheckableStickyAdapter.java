@@ -23,11 +23,17 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Checkable;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
 import jp.s64.android.radiobuttonextended.recycler.adapter.MultiCheckableAdapter;
 import jp.s64.android.stickyrecycler.IStickyCreator;
 import jp.s64.android.stickyrecycler.IStickyRecyclerAdapter;
+import jp.s64.android.stickyrecycler.StickyAdapterListUpdateCallback;
 import jp.s64.android.stickyrecycler.StickyRecyclerAdapterHelper;
 
 public abstract class MultiCheckableStickyAdapter<ITEM, IDENTIFIER, K, VH extends RecyclerView.ViewHolder & MultiCheckableAdapter.IMultiCheckableViewHolder<VH, K>> extends RecyclerView.Adapter<VH> implements IStickyRecyclerAdapter<ITEM, IDENTIFIER, VH> {
@@ -41,6 +47,8 @@ public abstract class MultiCheckableStickyAdapter<ITEM, IDENTIFIER, K, VH extend
 
     public MultiCheckableStickyAdapter(Class<? extends VH> viewHolderClass, IStickyCreator<ITEM, IDENTIFIER, VH> stickyCreator, @Nullable Integer stickyViewType, @Nullable Integer defaultItemType, MultiCheckableAdapter.IOnMultipleCheckedChangeListener<VH, K> listener, MultiCheckableAdapter.IPayloadGenerator<VH, K> generator) {
         mStickyHelper = new StickyRecyclerAdapterHelper<>(stickyCreator, stickyViewType, defaultItemType);
+        mStickyHelper.setListUpdateCallback(new StickyAdapterListUpdateCallback(this));
+        setHasStableIds(mStickyHelper.hasStableIds());
         mCheckableHelper = new MultiCheckableAdapter.Helper<>(viewHolderClass, listener, generator);
     }
 
@@ -84,16 +92,61 @@ public abstract class MultiCheckableStickyAdapter<ITEM, IDENTIFIER, K, VH extend
         mStickyHelper.add(items);
     }
 
+    @Override
+    public void addAll(Collection<? extends ITEM> items) {
+        mStickyHelper.addAll(items);
+    }
+
+    @Override
+    public void addAll(Iterator<? extends ITEM> items) {
+        mStickyHelper.addAll(items);
+    }
+
+    @Override
+    public void addAll(int position, Collection<? extends ITEM> items) {
+        mStickyHelper.addAll(position, items);
+    }
+
     @Override
     public void remove(ITEM item) {
         mStickyHelper.remove(item);
     }
 
+    @Override
+    public void update(ITEM oldItem, ITEM newItem) {
+        mStickyHelper.update(oldItem, newItem);
+    }
+
+    @Override
+    public void move(int fromPosition, int toPosition) {
+        mStickyHelper.move(fromPosition, toPosition);
+    }
+
+    @Override
+    public void removeSection(IDENTIFIER identifier) {
+        mStickyHelper.removeSection(identifier);
+    }
+
+    @Override
+    public void removeRange(int fromPosition, int toPosition) {
+        mStickyHelper.removeRange(fromPosition, toPosition);
+    }
+
+    @Override
+    public void removeAll(Predicate<? super ITEM> predicate) {
+        mStickyHelper.removeAll(predicate);
+    }
+
     @Override
     public void clear() {
         mStickyHelper.clear();
     }
 
+    @Override
+    public void submitList(@Nullable List<ITEM> items) {
+        mStickyHelper.submitList(items);
+    }
+
     @Override
     public ITEM getItemByPosition(int position) {
         return mStickyHelper.getItemByPosition(position);
@@ -119,11 +172,36 @@ public abstract class MultiCheckableStickyAdapter<ITEM, IDENTIFIER, K, VH extend
         return mStickyHelper.getStickyViewType();
     }
 
+    @Override
+    public boolean isStickyPosition(int position) {
+        return mStickyHelper.isStickyPosition(position);
+    }
+
     @Override
     public int findStickyPositionByIdentifier(IDENTIFIER identifier) {
         return mStickyHelper.findStickyPositionByIdentifier(identifier);
     }
 
+    @Override
+    public int getSectionCount() {
+        return mStickyHelper.getSectionCount();
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        return mStickyHelper.getSectionForPosition(position);
+    }
+
+    @Override
+    public int getPositionForSection(int section) {
+        return mStickyHelper.getPositionForSection(section);
+    }
+
+    @Override
+    public int getItemCountInSection(int section) {
+        return mStickyHelper.getItemCountInSection(section);
+    }
+
     public <V extends View & Checkable> boolean updateCheckedIds(K key, boolean isChecked) {
         return mCheckableHelper.updateCheckedIds(key, isChecked).first;
     }
@@ -141,4 +219,9 @@ public abstract class MultiCheckableStickyAdapter<ITEM, IDENTIFIER, K, VH extend
         return mStickyHelper.getItemViewType(position);
     }
 
+    @Override
+    public long getItemId(int position) {
+        return mStickyHelper.getItemId(position);
+    }
+
 }